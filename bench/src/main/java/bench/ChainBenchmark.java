@@ -0,0 +1,53 @@
+package bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/** A1 = 1, An = A(n-1) + 1: the long dependency chain of TestSpreadsheet section 1. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChainBenchmark {
+
+    @Param({"1000", "10000"})
+    public int length;
+
+    private Sheet sheet;
+    private String tail;
+    private int value;
+
+    @Setup
+    public void setUp() {
+        sheet = Sheet.create();
+        Map<String, String> cells = new LinkedHashMap<>();
+        cells.put("A1", "1");
+        for (int r = 2; r <= length; r++) cells.put("A" + r, "=A" + (r - 1) + "+1");
+        sheet.setAll(cells);
+        tail = "A" + length;
+    }
+
+    /** One edit at the head propagates through the whole chain. */
+    @Benchmark
+    public double editHead() {
+        sheet.set("A1", Integer.toString(++value & 1023));
+        return sheet.eval(tail);
+    }
+
+    @Benchmark
+    public double recomputeAll() {
+        sheet.recomputeAll();
+        return sheet.eval(tail);
+    }
+
+    /** Memoized read: no recalculation. */
+    @Benchmark
+    public double evaluateTail() {
+        return sheet.eval(tail);
+    }
+}
@@ -0,0 +1,49 @@
+package bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A chain of diamonds, one per row: Bn = An+1, Cn = An*2, Dn = (Bn+Cn)/3 and
+ * A(n+1) = Dn. Every cell is reached along two paths, so a recalculation that
+ * does not dedupe work does it twice per stage.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DiamondBenchmark {
+
+    @Param({"100", "1000"})
+    public int stages;
+
+    private Sheet sheet;
+    private String last;
+    private int value;
+
+    @Setup
+    public void setUp() {
+        sheet = Sheet.create();
+        Map<String, String> cells = new LinkedHashMap<>();
+        cells.put("A1", "1");
+        for (int r = 1; r <= stages; r++) {
+            if (r > 1) cells.put("A" + r, "=D" + (r - 1));
+            cells.put("B" + r, "=A" + r + "+1");
+            cells.put("C" + r, "=A" + r + "*2");
+            cells.put("D" + r, "=(B" + r + "+C" + r + ")/3");
+        }
+        sheet.setAll(cells);
+        last = "D" + stages;
+    }
+
+    @Benchmark
+    public double editRoot() {
+        sheet.set("A1", Integer.toString(++value & 1023));
+        return sheet.eval(last);
+    }
+}
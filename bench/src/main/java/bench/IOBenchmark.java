@@ -0,0 +1,72 @@
+package bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Load and save of generated S2V files: a 10-column grid, every tenth cell a
+ * formula over its row and the cell above.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class IOBenchmark {
+
+    private static final int COLS = 10;
+
+    @Param({"1000", "10000", "100000"})
+    public int cells;
+
+    private String input;
+    private String output;
+    private Sheet loaded;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        Map<String, String> content = new LinkedHashMap<>();
+        int rows = cells / COLS;
+        for (int r = 1; r <= rows; r++) {
+            for (int c = 0; c < COLS - 1; c++) {
+                content.put(ref(c, r), (r * 31 + c) % 1000 + "." + c);
+            }
+            String above = (r > 1) ? "+" + ref(COLS - 1, r - 1) : "";
+            content.put(ref(COLS - 1, r), "=SUMA(A" + r + ":" + ref(COLS - 2, r) + ")" + above);
+        }
+
+        Sheet sheet = Sheet.create();
+        sheet.setAll(content);
+
+        input = File.createTempFile("bench-in", ".s2v").getPath();
+        output = File.createTempFile("bench-out", ".s2v").getPath();
+        sheet.save(input);
+        loaded = Sheet.load(input);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        new File(input).delete();
+        new File(output).delete();
+    }
+
+    private static String ref(int col, int row) {
+        return (char) ('A' + col) + Integer.toString(row);
+    }
+
+    @Benchmark
+    public Object load() {
+        return Sheet.load(input);
+    }
+
+    @Benchmark
+    public void save() {
+        loaded.save(output);
+    }
+}
@@ -0,0 +1,46 @@
+package bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/** Functions as arguments of functions, mixed with arithmetic. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NestedFunctionBenchmark {
+
+    private static final String FORMULA =
+            "=SUMA(MAX(A1:A500);MIN(A501:A1000);PROMEDIO(A1:A1000)*2)/COUNT(A1:A1000)+MAX(SUMA(A1:A10);A20)";
+
+    private Sheet sheet;
+    private int value;
+
+    @Setup
+    public void setUp() {
+        sheet = Sheet.create();
+        Map<String, String> cells = new LinkedHashMap<>();
+        for (int r = 1; r <= 1000; r++) cells.put("A" + r, Integer.toString(r * 7 % 101));
+        cells.put("B1", FORMULA);
+        sheet.setAll(cells);
+    }
+
+    /** Parse + compile + first evaluation of the formula. */
+    @Benchmark
+    public double setFormula() {
+        sheet.set("B2", FORMULA);
+        return sheet.eval("B2");
+    }
+
+    /** Re-evaluation of the compiled formula after one of its inputs changed. */
+    @Benchmark
+    public double editInput() {
+        sheet.set("A5", Integer.toString(++value & 1023));
+        return sheet.eval("B1");
+    }
+}
@@ -0,0 +1,48 @@
+package bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/** SUMA and MAX over one wide column, recomputed after an edit inside the range. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RangeBenchmark {
+
+    @Param({"10000", "100000"})
+    public int rows;
+
+    @Param({"false", "true"})
+    public boolean aggregateIndex;
+
+    private Sheet sheet;
+    private String[] refs;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        sheet = Sheet.create();
+        Map<String, String> cells = new LinkedHashMap<>();
+        for (int r = 1; r <= rows; r++) cells.put("A" + r, Integer.toString(r % 997));
+        cells.put("B1", "=SUMA(A1:A" + rows + ")");
+        cells.put("B2", "=MAX(A1:A" + rows + ")");
+        sheet.setAll(cells);
+        sheet.setAggregateIndexEnabled(aggregateIndex);
+
+        refs = new String[1024];
+        for (int i = 0; i < refs.length; i++) refs[i] = "A" + (1 + (long) i * rows / refs.length);
+    }
+
+    @Benchmark
+    public double editInRange() {
+        int i = next++ & (refs.length - 1);
+        sheet.set(refs[i], Integer.toString(i));
+        return sheet.eval("B1") + sheet.eval("B2");
+    }
+}
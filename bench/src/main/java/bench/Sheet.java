@@ -0,0 +1,156 @@
+package bench;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.util.Map;
+
+import static java.lang.invoke.MethodType.methodType;
+
+/**
+ * Handle on a Spreadsheet for the benchmarks.
+ *
+ * The spreadsheet classes live in the default package, which a named package cannot
+ * import, and JMH refuses benchmark classes in the default package. Calls therefore
+ * go through static final method handles, which the JIT treats as constants and
+ * inlines, so they add no measurable cost.
+ */
+final class Sheet {
+
+    private static final MethodHandle NEW;
+    private static final MethodHandle NEW_TILED;
+    private static final MethodHandle SET_CELL;
+    private static final MethodHandle SET_CELLS;
+    private static final MethodHandle EVALUATE;
+    private static final MethodHandle RECOMPUTE_ALL;
+    private static final MethodHandle SET_INDEX;
+    private static final MethodHandle SET_VECTOR;
+    private static final MethodHandle SAVE;
+    private static final MethodHandle LOAD;
+
+    static {
+        try {
+            MethodHandles.Lookup l = MethodHandles.publicLookup();
+            Class<?> sheet = Class.forName("Spreadsheet");
+            Class<?> io = Class.forName("SpreadsheetIO");
+            Class<?> store = Class.forName("CellStore");
+            Class<?> tiled = Class.forName("TiledCellStore");
+
+            NEW = l.findConstructor(sheet, methodType(void.class))
+                    .asType(methodType(Object.class));
+            NEW_TILED = MethodHandles.collectArguments(
+                    l.findConstructor(sheet, methodType(void.class, store)).asType(methodType(Object.class, Object.class)),
+                    0, l.findConstructor(tiled, methodType(void.class)).asType(methodType(Object.class)));
+            SET_CELL = l.findVirtual(sheet, "setCell", methodType(void.class, String.class, String.class))
+                    .asType(methodType(void.class, Object.class, String.class, String.class));
+            SET_CELLS = l.findVirtual(sheet, "setCells", methodType(void.class, Map.class))
+                    .asType(methodType(void.class, Object.class, Map.class));
+            EVALUATE = l.findVirtual(sheet, "evaluateCell", methodType(double.class, String.class))
+                    .asType(methodType(double.class, Object.class, String.class));
+            RECOMPUTE_ALL = l.findVirtual(sheet, "recomputeAll", methodType(void.class))
+                    .asType(methodType(void.class, Object.class));
+            SET_INDEX = l.findVirtual(sheet, "setAggregateIndexEnabled", methodType(void.class, boolean.class))
+                    .asType(methodType(void.class, Object.class, boolean.class));
+            SET_VECTOR = l.findVirtual(sheet, "setVectorRangesEnabled", methodType(boolean.class, boolean.class))
+                    .asType(methodType(boolean.class, Object.class, boolean.class));
+            SAVE = l.findStatic(io, "save", methodType(void.class, sheet, String.class))
+                    .asType(methodType(void.class, Object.class, String.class));
+            LOAD = l.findStatic(io, "load", methodType(sheet, String.class))
+                    .asType(methodType(Object.class, String.class));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final Object sheet;
+
+    private Sheet(Object sheet) {
+        this.sheet = sheet;
+    }
+
+    static Sheet create() {
+        try {
+            return new Sheet((Object) NEW.invokeExact());
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    /** A sheet on the columnar TiledCellStore backend. */
+    static Sheet createTiled() {
+        try {
+            return new Sheet((Object) NEW_TILED.invokeExact());
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static Sheet load(String filename) {
+        try {
+            return new Sheet((Object) LOAD.invokeExact(filename));
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    void save(String filename) {
+        try {
+            SAVE.invokeExact(sheet, filename);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    void set(String ref, String content) {
+        try {
+            SET_CELL.invokeExact(sheet, ref, content);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    void setAll(Map<String, String> edits) {
+        try {
+            SET_CELLS.invokeExact(sheet, edits);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    double eval(String ref) {
+        try {
+            return (double) EVALUATE.invokeExact(sheet, ref);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    void recomputeAll() {
+        try {
+            RECOMPUTE_ALL.invokeExact(sheet);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    void setAggregateIndexEnabled(boolean enabled) {
+        try {
+            SET_INDEX.invokeExact(sheet, enabled);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    boolean setVectorRangesEnabled(boolean enabled) {
+        try {
+            return (boolean) SET_VECTOR.invokeExact(sheet, enabled);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    private static RuntimeException rethrow(Throwable t) {
+        if (t instanceof RuntimeException) return (RuntimeException) t;
+        if (t instanceof Error) throw (Error) t;
+        return new RuntimeException(t);
+    }
+}
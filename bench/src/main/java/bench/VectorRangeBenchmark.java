@@ -0,0 +1,65 @@
+package bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * SUMA, MIN, MAX and PROMEDIO over a block of 64 full columns on the tiled store,
+ * folded one cell at a time or with the Vector API. Every tenth cell is empty and
+ * every hundredth is text, so the masks have something to skip.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+public class VectorRangeBenchmark {
+
+    private static final int COLS = 64; // one tile wide
+
+    @Param({"1024", "16384"})
+    public int rows;
+
+    @Param({"false", "true"})
+    public boolean vector;
+
+    private Sheet sheet;
+
+    @Setup
+    public void setUp() {
+        sheet = Sheet.createTiled();
+        Map<String, String> cells = new LinkedHashMap<>();
+        for (int c = 0; c < COLS; c++) {
+            String col = column(c);
+            for (int r = 1; r <= rows; r++) {
+                if (r % 10 == 0) continue;
+                cells.put(col + r, (r % 100 == 1) ? "label" : Double.toString((r * 31 + c) % 1009 * 0.5));
+            }
+        }
+        String range = "A1:" + column(COLS - 1) + rows;
+        cells.put("BZ1", "=SUMA(" + range + ")");
+        cells.put("BZ2", "=MIN(" + range + ")");
+        cells.put("BZ3", "=MAX(" + range + ")");
+        cells.put("BZ4", "=PROMEDIO(" + range + ")");
+        sheet.setAll(cells);
+
+        if (sheet.setVectorRangesEnabled(vector) != vector) {
+            throw new IllegalStateException("Vector API not available");
+        }
+    }
+
+    @Benchmark
+    public double recomputeAggregates() {
+        sheet.recomputeAll();
+        return sheet.eval("BZ1") + sheet.eval("BZ2") + sheet.eval("BZ3") + sheet.eval("BZ4");
+    }
+
+    private static String column(int c) {
+        return (c < 26) ? String.valueOf((char) ('A' + c))
+                : String.valueOf((char) ('A' + c / 26 - 1)) + (char) ('A' + c % 26);
+    }
+}
@@ -0,0 +1,21 @@
+/**
+ * Per-evaluation state of one function call. The evaluator feeds it every value
+ * as it visits the arguments; nothing is collected into lists or boxed.
+ * Empty and text cells are never fed (for SUMA that is the same as adding 0).
+ */
+public interface Accumulator {
+
+    void add(double v);
+
+    /** True if a precomputed range summary can stand in for visiting the cells. */
+    default boolean acceptsStats() {
+        return false;
+    }
+
+    /** Folds in the numbers of a whole range at once; only called if {@link #acceptsStats()}. */
+    default void addStats(RangeStats s) {
+        throw new UnsupportedOperationException();
+    }
+
+    double result();
+}
@@ -0,0 +1,19 @@
+import java.util.List;
+
+/**
+ * A function callable from formulas, e.g. SUMA(A1:A9;2). Registered by name in
+ * {@link Functions} and resolved once when a formula is compiled.
+ */
+public interface AggregateFunction {
+
+    /**
+     * Compile-time hook for quoted text arguments such as the criterion of
+     * SUMIF(A1:A9;"&gt;5"). The result is handed to every {@link #newAccumulator} call.
+     */
+    default Object bind(String name, List<String> textArgs) {
+        if (!textArgs.isEmpty()) throw new IllegalArgumentException(name + " does not take text arguments");
+        return null;
+    }
+
+    Accumulator newAccumulator(Object binding);
+}
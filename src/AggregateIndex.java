@@ -0,0 +1,323 @@
+/**
+ * Optional per-column index answering sum/count/min/max of the numbers in a row
+ * interval in O(log n), so SUMA(A1:A1000000) does not visit a million cells.
+ * Each column is split into chunks of {@link #CHUNK_ROWS} rows that exist only
+ * where the column has cells. A chunk lists its few cells until it holds more than
+ * {@link #SPARSE_MAX}, then switches to an iterative segment tree, so memory follows
+ * the occupied rows rather than the highest one. A second segment tree over the
+ * chunk totals answers the chunks a range covers whole. Formula cells are counted too: a
+ * range holding a formula is not answered here, because formula values change
+ * during recalculation; the caller scans it instead.
+ *
+ * Sums come from a different addition order than a scan, so they can differ from
+ * it in the last bits.
+ */
+public class AggregateIndex {
+
+    static final int CHUNK_ROWS = 1024;
+    static final int SPARSE_MAX = 32;
+
+    // Segment tree over the rows of one chunk; offset o lives at leaf CHUNK_ROWS + o
+    private static final class Tree {
+        final double[] sum = new double[2 * CHUNK_ROWS];
+        final double[] min = new double[2 * CHUNK_ROWS];
+        final double[] max = new double[2 * CHUNK_ROWS];
+        final int[] count = new int[2 * CHUNK_ROWS];
+        final int[] formulas = new int[2 * CHUNK_ROWS];
+        int cells; // leaves holding a number or a formula
+
+        Tree() {
+            java.util.Arrays.fill(min, Double.POSITIVE_INFINITY);
+            java.util.Arrays.fill(max, Double.NEGATIVE_INFINITY);
+        }
+
+        void pull(int i) {
+            int l = 2 * i, r = l + 1;
+            sum[i] = sum[l] + sum[r];
+            min[i] = Math.min(min[l], min[r]);
+            max[i] = Math.max(max[l], max[r]);
+            count[i] = count[l] + count[r];
+            formulas[i] = formulas[l] + formulas[r];
+        }
+
+        void set(int offset, CellType type, double v) {
+            int i = CHUNK_ROWS + offset;
+            boolean number = (type == CellType.NUMBER);
+            cells += ((number || type == CellType.FORMULA) ? 1 : 0) - count[i] - formulas[i];
+            sum[i] = number ? v : 0.0;
+            min[i] = number ? v : Double.POSITIVE_INFINITY;
+            max[i] = number ? v : Double.NEGATIVE_INFINITY;
+            count[i] = number ? 1 : 0;
+            formulas[i] = (type == CellType.FORMULA) ? 1 : 0;
+            for (i >>= 1; i >= 1; i >>= 1) pull(i);
+        }
+
+        // Folds offsets [lo, hi] into s; returns the formula cells seen
+        int fold(int lo, int hi, RangeStats s) {
+            int l = CHUNK_ROWS + lo;
+            int r = CHUNK_ROWS + hi + 1; // half-open
+            int f = 0;
+            while (l < r) {
+                if ((l & 1) == 1) f += fold(l++, s);
+                if ((r & 1) == 1) f += fold(--r, s);
+                l >>= 1;
+                r >>= 1;
+            }
+            return f;
+        }
+
+        private int fold(int i, RangeStats s) {
+            s.sum += sum[i];
+            s.count += count[i];
+            if (min[i] < s.min) s.min = min[i];
+            if (max[i] > s.max) s.max = max[i];
+            return formulas[i];
+        }
+    }
+
+    // CHUNK_ROWS rows of a column: a short list of cells, or a tree once it outgrows it
+    private static final class Chunk {
+        int size;
+        int[] offsets = new int[4];
+        double[] values = new double[4];
+        boolean[] formula = new boolean[4];
+        Tree tree;
+
+        void set(int offset, CellType type, double v) {
+            if (tree != null) {
+                tree.set(offset, type, v);
+                return;
+            }
+
+            int i = 0;
+            while (i < size && offsets[i] != offset) i++;
+            if (type != CellType.NUMBER && type != CellType.FORMULA) {
+                if (i < size) {
+                    size--;
+                    offsets[i] = offsets[size];
+                    values[i] = values[size];
+                    formula[i] = formula[size];
+                }
+                return;
+            }
+
+            if (i == size) {
+                if (size == SPARSE_MAX) {
+                    toTree();
+                    tree.set(offset, type, v);
+                    return;
+                }
+                if (size == offsets.length) {
+                    int n = Math.min(SPARSE_MAX, size * 2);
+                    offsets = java.util.Arrays.copyOf(offsets, n);
+                    values = java.util.Arrays.copyOf(values, n);
+                    formula = java.util.Arrays.copyOf(formula, n);
+                }
+                offsets[i] = offset;
+                size++;
+            }
+            values[i] = v;
+            formula[i] = (type == CellType.FORMULA);
+        }
+
+        private void toTree() {
+            Tree t = new Tree();
+            for (int i = 0; i < size; i++) {
+                t.set(offsets[i], formula[i] ? CellType.FORMULA : CellType.NUMBER, values[i]);
+            }
+            tree = t;
+            offsets = null;
+            values = null;
+            formula = null;
+        }
+
+        boolean isEmpty() {
+            return (tree == null) ? size == 0 : tree.cells == 0;
+        }
+
+        int fold(int lo, int hi, RangeStats s) {
+            if (tree != null) return tree.fold(lo, hi, s);
+
+            int f = 0;
+            for (int i = 0; i < size; i++) {
+                if (offsets[i] < lo || offsets[i] > hi) continue;
+                if (formula[i]) {
+                    f++;
+                    continue;
+                }
+                double v = values[i];
+                s.sum += v;
+                s.count++;
+                if (v < s.min) s.min = v;
+                if (v > s.max) s.max = v;
+            }
+            return f;
+        }
+    }
+
+    // The occupied chunks of one column, ordered by chunk number, under a segment
+    // tree of their totals; chunk i of the list is leaf cap + i
+    private static final class Column {
+        int size;
+        int[] ids = new int[4];
+        Chunk[] chunks = new Chunk[4];
+
+        int cap;
+        double[] sum, min, max;
+        int[] count, formulas;
+
+        Column() {
+            rebuild();
+        }
+
+        void set(int row, CellType type, double v) {
+            int id = row / CHUNK_ROWS;
+            int i = java.util.Arrays.binarySearch(ids, 0, size, id);
+            boolean clearing = (type != CellType.NUMBER && type != CellType.FORMULA);
+            boolean created = false;
+            if (i < 0) {
+                if (clearing) return;
+                i = -i - 1;
+                if (size == ids.length) {
+                    ids = java.util.Arrays.copyOf(ids, size * 2);
+                    chunks = java.util.Arrays.copyOf(chunks, size * 2);
+                }
+                System.arraycopy(ids, i, ids, i + 1, size - i);
+                System.arraycopy(chunks, i, chunks, i + 1, size - i);
+                ids[i] = id;
+                chunks[i] = new Chunk();
+                size++;
+                created = true;
+            }
+
+            Chunk c = chunks[i];
+            c.set(row - id * CHUNK_ROWS, type, v);
+            if (c.isEmpty()) {
+                System.arraycopy(ids, i + 1, ids, i, size - i - 1);
+                System.arraycopy(chunks, i + 1, chunks, i, size - i - 1);
+                chunks[--size] = null;
+                rebuild();
+            } else if (created) {
+                rebuild(); // leaves after i moved
+            } else {
+                int n = cap + i;
+                leaf(n, c);
+                for (n >>= 1; n >= 1; n >>= 1) pull(n);
+            }
+        }
+
+        // Chunks come and go far less often than cells change, so this is O(chunks)
+        private void rebuild() {
+            cap = 1;
+            while (cap < size) cap <<= 1;
+            sum = new double[2 * cap];
+            min = new double[2 * cap];
+            max = new double[2 * cap];
+            count = new int[2 * cap];
+            formulas = new int[2 * cap];
+            java.util.Arrays.fill(min, Double.POSITIVE_INFINITY);
+            java.util.Arrays.fill(max, Double.NEGATIVE_INFINITY);
+            for (int i = 0; i < size; i++) leaf(cap + i, chunks[i]);
+            for (int n = cap - 1; n >= 1; n--) pull(n);
+        }
+
+        private void leaf(int n, Chunk c) {
+            RangeStats t = new RangeStats();
+            formulas[n] = c.fold(0, CHUNK_ROWS - 1, t);
+            sum[n] = t.sum;
+            min[n] = t.min;
+            max[n] = t.max;
+            count[n] = t.count;
+        }
+
+        private void pull(int n) {
+            int l = 2 * n, r = l + 1;
+            sum[n] = sum[l] + sum[r];
+            min[n] = Math.min(min[l], min[r]);
+            max[n] = Math.max(max[l], max[r]);
+            count[n] = count[l] + count[r];
+            formulas[n] = formulas[l] + formulas[r];
+        }
+
+        /** Folds rows [row1, row2] into out; false if the interval holds a formula. */
+        boolean query(int row1, int row2, RangeStats out) {
+            int first = row1 / CHUNK_ROWS, last = row2 / CHUNK_ROWS;
+            int i = lowerBound(first), j = lowerBound(last + 1); // chunks [i, j) overlap the rows
+
+            RangeStats s = new RangeStats();
+            int f = 0;
+            if (i < j && ids[i] == first && row1 % CHUNK_ROWS != 0) f += partial(i++, row1, row2, s);
+            if (i < j && ids[j - 1] == last && row2 % CHUNK_ROWS != CHUNK_ROWS - 1) f += partial(--j, row1, row2, s);
+
+            // the rest are covered whole
+            int l = cap + i, r = cap + j;
+            while (l < r) {
+                if ((l & 1) == 1) f += fold(l++, s);
+                if ((r & 1) == 1) f += fold(--r, s);
+                l >>= 1;
+                r >>= 1;
+            }
+            if (f > 0) return false;
+            out.merge(s);
+            return true;
+        }
+
+        private int partial(int i, int row1, int row2, RangeStats s) {
+            int base = ids[i] * CHUNK_ROWS;
+            return chunks[i].fold(Math.max(row1 - base, 0), Math.min(row2 - base, CHUNK_ROWS - 1), s);
+        }
+
+        private int fold(int n, RangeStats s) {
+            s.sum += sum[n];
+            s.count += count[n];
+            if (min[n] < s.min) s.min = min[n];
+            if (max[n] > s.max) s.max = max[n];
+            return formulas[n];
+        }
+
+        private int lowerBound(int id) {
+            int i = java.util.Arrays.binarySearch(ids, 0, size, id);
+            return (i < 0) ? -i - 1 : i;
+        }
+
+        long bytes() {
+            long b = 2L * cap * 32;
+            for (int i = 0; i < size; i++) {
+                b += (chunks[i].tree != null) ? 2L * CHUNK_ROWS * 32 : (long) chunks[i].offsets.length * 13;
+            }
+            return b;
+        }
+    }
+
+    private final LongMap<Column> columns = new LongMap<>();
+
+    public void update(int col, int row, CellType type, double value) {
+        Column c = columns.get(col);
+        if (c == null) {
+            if (type != CellType.NUMBER && type != CellType.FORMULA) return;
+            columns.put(col, c = new Column());
+        }
+        c.set(row, type, value);
+        if (c.size == 0) columns.remove(col);
+    }
+
+    /**
+     * Stats of the numbers in the rectangle, or null if it contains a formula.
+     * Empty and text cells are not counted.
+     */
+    public RangeStats query(int col1, int row1, int col2, int row2) {
+        RangeStats out = new RangeStats();
+        for (int col = col1; col <= col2; col++) {
+            Column c = columns.get(col);
+            if (c != null && !c.query(row1, row2, out)) return null;
+        }
+        return out;
+    }
+
+    // Approximate bytes held by the per-chunk arrays
+    long bytes() {
+        long[] total = {0};
+        columns.forEach((col, c) -> total[0] += c.bytes());
+        return total[0];
+    }
+}
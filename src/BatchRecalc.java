@@ -0,0 +1,199 @@
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.stream.Stream;
+
+/**
+ * Non-interactive recalculation of many S2V files in one JVM: each file is loaded,
+ * recalculated and written back on a bounded worker pool. A file that fails (cycle,
+ * bad formula, I/O) is reported and the run goes on with the others.
+ */
+public class BatchRecalc {
+
+    private static final String VALUES_SUFFIX = ".values.s2v";
+
+    public enum Mode {
+        /** Write {@code name.values.s2v} with every formula replaced by its value. */
+        VALUES,
+        /** Save the recalculated sheet again (normalized S2V), in place unless an output dir is given. */
+        RESAVE
+    }
+
+    public static final class FileResult {
+        public final Path file;
+        public final Path output;   // null when failed
+        public final int cells;
+        public final long millis;
+        public final String error;  // null when ok
+
+        FileResult(Path file, Path output, int cells, long millis, String error) {
+            this.file = file;
+            this.output = output;
+            this.cells = cells;
+            this.millis = millis;
+            this.error = error;
+        }
+
+        public boolean ok() {
+            return error == null;
+        }
+    }
+
+    public static final class Summary {
+        public final List<FileResult> results; // in completion order
+        public final long wallMillis;
+
+        Summary(List<FileResult> results, long wallMillis) {
+            this.results = Collections.unmodifiableList(results);
+            this.wallMillis = wallMillis;
+        }
+
+        public int succeeded() {
+            int n = 0;
+            for (FileResult r : results) {
+                if (r.ok()) n++;
+            }
+            return n;
+        }
+
+        public int failed() {
+            return results.size() - succeeded();
+        }
+    }
+
+    /**
+     * The S2V files named by {@code dirOrGlob}: every *.s2v file directly in a
+     * directory, a single file, or every file matching a glob such as
+     * {@code data/*.s2v} (the glob is matched below the directory it starts in).
+     * Directories and globs skip the {@code *.values.s2v} outputs of an earlier run.
+     */
+    public static List<Path> resolve(String dirOrGlob) throws IOException {
+        List<Path> files = new ArrayList<>();
+
+        int glob = indexOfGlob(dirOrGlob);
+        if (glob < 0) {
+            Path path = Paths.get(dirOrGlob);
+            if (!Files.isDirectory(path)) {
+                files.add(path);
+                return files;
+            }
+            try (DirectoryStream<Path> ds = Files.newDirectoryStream(path, "*.s2v")) {
+                for (Path p : ds) {
+                    if (Files.isRegularFile(p) && !isOutput(p)) files.add(p);
+                }
+            }
+        } else {
+            int slash = dirOrGlob.lastIndexOf('/', glob);
+            Path base = Paths.get(slash < 0 ? "." : dirOrGlob.substring(0, slash + 1));
+            PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + dirOrGlob.substring(slash + 1));
+            try (Stream<Path> walk = Files.walk(base)) {
+                walk.filter(Files::isRegularFile)
+                        .filter(p -> !isOutput(p))
+                        .filter(p -> matcher.matches(base.relativize(p)))
+                        .forEach(files::add);
+            }
+        }
+        Collections.sort(files);
+        return files;
+    }
+
+    private static boolean isOutput(Path p) {
+        return p.getFileName().toString().endsWith(VALUES_SUFFIX);
+    }
+
+    private static int indexOfGlob(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '*' || c == '?' || c == '[' || c == '{') return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Processes the files on {@code threads} workers and prints one line per file to
+     * {@code log} as it finishes, then a summary.
+     *
+     * @param outDir where outputs go; null writes next to each input
+     */
+    public static Summary run(List<Path> files, Mode mode, Path outDir, int threads, PrintStream log)
+            throws IOException, InterruptedException {
+        if (outDir != null) Files.createDirectories(outDir);
+
+        long start = System.nanoTime();
+        List<FileResult> results = new ArrayList<>(files.size());
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, threads));
+        try {
+            CompletionService<FileResult> done = new ExecutorCompletionService<>(pool);
+            for (Path f : files) {
+                done.submit(() -> process(f, mode, outDir));
+            }
+            for (int i = 0; i < files.size(); i++) {
+                FileResult r;
+                try {
+                    r = done.take().get();
+                } catch (ExecutionException e) {
+                    throw new IllegalStateException(e.getCause()); // process() catches everything
+                }
+                results.add(r);
+                if (r.ok()) log.printf("OK    %-40s %6d ms  %7d cells  -> %s%n", r.file, r.millis, r.cells, r.output);
+                else log.printf("FAIL  %-40s %6d ms  %s%n", r.file, r.millis, r.error);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        Summary summary = new Summary(results, (System.nanoTime() - start) / 1_000_000);
+        printSummary(summary, threads, log);
+        return summary;
+    }
+
+    private static FileResult process(Path file, Mode mode, Path outDir) {
+        long start = System.nanoTime();
+        try {
+            Spreadsheet sheet = SpreadsheetIO.load(file.toString());
+
+            Path output;
+            if (mode == Mode.VALUES) {
+                String name = file.getFileName().toString().replaceFirst("\\.s2v$", "") + VALUES_SUFFIX;
+                output = (outDir != null ? outDir : dir(file)).resolve(name);
+                SpreadsheetIO.saveValues(sheet, output.toString());
+            } else {
+                output = (outDir != null) ? outDir.resolve(file.getFileName()) : file;
+                SpreadsheetIO.save(sheet, output.toString());
+            }
+            return new FileResult(file, output, sheet.nonEmptyKeys().length, millisSince(start), null);
+        } catch (Exception | StackOverflowError | OutOfMemoryError e) {
+            // a file too deep or too big for this JVM fails alone, like any other bad file
+            String msg = (e.getMessage() != null) ? e.getMessage() : e.getClass().getSimpleName();
+            return new FileResult(file, null, 0, millisSince(start), msg);
+        }
+    }
+
+    private static Path dir(Path file) {
+        Path parent = file.toAbsolutePath().getParent();
+        return (parent != null) ? parent : Paths.get(".");
+    }
+
+    private static long millisSince(long start) {
+        return (System.nanoTime() - start) / 1_000_000;
+    }
+
+    private static void printSummary(Summary s, int threads, PrintStream log) {
+        long cells = 0, busy = 0;
+        FileResult slowest = null;
+        for (FileResult r : s.results) {
+            cells += r.cells;
+            busy += r.millis;
+            if (slowest == null || r.millis > slowest.millis) slowest = r;
+        }
+
+        log.println("----");
+        log.printf("%d files: %d ok, %d failed, %d cells, %d ms wall (%d ms of work on %d threads)%n",
+                s.results.size(), s.succeeded(), s.failed(), cells, s.wallMillis, busy, threads);
+        if (slowest != null) log.printf("slowest: %s (%d ms)%n", slowest.file, slowest.millis);
+    }
+}
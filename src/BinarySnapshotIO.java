@@ -0,0 +1,345 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * Versioned binary snapshot of a sheet, kept alongside S2V. Besides the raw content
+ * it stores compiled formulas and their last computed values, so {@link #load}
+ * rebuilds a ready-to-serve sheet without parsing a formula or recalculating.
+ *
+ * Layout (big-endian):
+ * <pre>
+ *   int  magic "S2VB", int version, int cellCount, long stringTableOffset
+ *   cellCount x { long key, byte type, ... }   see writeCell
+ *   string table: int count, count x { int byteLength, UTF-8 bytes }
+ * </pre>
+ * Text is interned into the string table and referenced by index (-1 = none).
+ */
+public class BinarySnapshotIO {
+
+    private static final int MAGIC = 0x53325642; // "S2VB"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 20;
+    private static final int WINDOW = 1 << 30; // a mapping must stay under 2GB
+
+    public static void save(Spreadsheet sheet, String filename) throws IOException {
+        CellStore store = sheet.store();
+        long[] keys = sheet.nonEmptyKeys();
+        Map<String, Integer> ids = new HashMap<>();
+        List<String> strings = new ArrayList<>();
+        long tableOffset;
+
+        try (FileOutputStream file = new FileOutputStream(filename);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file, 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(keys.length);
+            out.writeLong(0L); // patched below
+
+            for (long key : keys) {
+                writeCell(out, store, key, ids, strings);
+            }
+
+            out.flush();
+            tableOffset = file.getChannel().position(); // out.size() stops counting at 2GB
+            out.writeInt(strings.size());
+            for (String s : strings) {
+                byte[] b = s.getBytes(StandardCharsets.UTF_8);
+                out.writeInt(b.length);
+                out.write(b);
+            }
+        }
+
+        try (RandomAccessFile raf = new RandomAccessFile(filename, "rw")) {
+            raf.seek(12);
+            raf.writeLong(tableOffset);
+        }
+    }
+
+    public static Spreadsheet load(String filename) throws IOException {
+        return load(filename, new HashCellStore());
+    }
+
+    public static Spreadsheet load(String filename, CellStore store) throws IOException {
+        return load(filename, store, WINDOW);
+    }
+
+    // window is exposed so tests can push records across mapping boundaries
+    static Spreadsheet load(String filename, CellStore store, int window) throws IOException {
+        Spreadsheet sheet = new Spreadsheet(store);
+
+        try (FileChannel ch = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+            MappedInput in = new MappedInput(ch, 0, window);
+
+            if (ch.size() < HEADER_SIZE || in.getInt() != MAGIC) {
+                throw new IOException("Not an S2V snapshot: " + filename);
+            }
+            int version = in.getInt();
+            if (version != VERSION) throw new IOException("Unsupported snapshot version: " + version);
+
+            int cellCount = in.getInt();
+            long tableOffset = in.getLong();
+
+            if (tableOffset < HEADER_SIZE || tableOffset > ch.size()) {
+                throw new IOException("Corrupt snapshot (string table offset " + tableOffset + "): " + filename);
+            }
+            String[] strings = readStrings(new MappedInput(ch, tableOffset, window));
+            for (int i = 0; i < cellCount; i++) {
+                readCell(in, sheet, strings);
+            }
+        }
+
+        return sheet; // values are served as saved; nothing is recalculated
+    }
+
+    // ==========================================================
+    // 1) Cells
+    // ==========================================================
+
+    private static void writeCell(DataOutputStream out, CellStore store, long key,
+                                  Map<String, Integer> ids, List<String> strings) throws IOException {
+        CellType type = store.type(key);
+        out.writeLong(key);
+        out.writeByte(type.ordinal());
+
+        switch (type) {
+            case NUMBER: {
+                double v = store.number(key);
+                String raw = store.raw(key);
+                out.writeDouble(v);
+                out.writeInt(raw.equals(Cell.formatNumber(v)) ? -1 : intern(raw, ids, strings));
+                break;
+            }
+            case TEXT:
+                out.writeInt(intern(store.raw(key), ids, strings));
+                break;
+            case FORMULA: {
+                Cell c = store.cell(key);
+                out.writeInt(intern(c.getRaw(), ids, strings));
+                out.writeBoolean(c.isValid());
+                out.writeDouble(c.getCachedNumber());
+                writeFormula(out, c.getFormula(), ids, strings);
+                break;
+            }
+            default:
+                break;
+        }
+    }
+
+    private static void readCell(MappedInput in, Spreadsheet sheet, String[] strings) throws IOException {
+        long key = in.getLong();
+        CellType type = CellType.values()[in.get()];
+
+        switch (type) {
+            case NUMBER: {
+                double v = in.getDouble();
+                int raw = in.getInt();
+                if (raw < 0) {
+                    sheet.putNumber(key, v);
+                } else {
+                    Cell c = new Cell();
+                    c.restore(CellType.NUMBER, strings[raw], v, null, false);
+                    sheet.putCell(key, c);
+                }
+                break;
+            }
+            case TEXT: {
+                Cell c = new Cell();
+                c.restore(CellType.TEXT, strings[in.getInt()], 0.0, null, false);
+                sheet.putCell(key, c);
+                break;
+            }
+            case FORMULA: {
+                String raw = strings[in.getInt()];
+                boolean valid = in.get() != 0;
+                double value = in.getDouble();
+                Cell c = new Cell();
+                c.restore(CellType.FORMULA, raw, value, readFormula(in, strings), valid);
+                sheet.putCell(key, c);
+                break;
+            }
+            default:
+                break;
+        }
+    }
+
+    // ==========================================================
+    // 2) Compiled formulas
+    // ==========================================================
+
+    private static void writeFormula(DataOutputStream out, CompiledFormula f,
+                                     Map<String, Integer> ids, List<String> strings) throws IOException {
+        out.writeInt(f.ops.length);
+        out.write(f.ops);
+        for (int x : f.operands) out.writeInt(x);
+
+        out.writeInt(f.constants.length);
+        for (double d : f.constants) out.writeDouble(d);
+
+        out.writeInt(f.cellCols.length);
+        for (int i = 0; i < f.cellCols.length; i++) {
+            out.writeInt(f.cellCols[i]);
+            out.writeInt(f.cellRows[i]);
+        }
+
+        out.writeInt(f.calls.length);
+        for (FunctionCall call : f.calls) {
+            out.writeInt(intern(call.name, ids, strings));
+            out.writeInt(call.argKinds.length);
+            for (int i = 0; i < call.argKinds.length; i++) {
+                out.writeByte(call.argKinds[i]);
+                switch (call.argKinds[i]) {
+                    case FunctionCall.ARG_EXPR:
+                        writeFormula(out, call.exprs[i], ids, strings);
+                        break;
+                    case FunctionCall.ARG_TEXT:
+                        out.writeInt(intern(call.texts[i], ids, strings));
+                        break;
+                    default:
+                        out.writeInt(call.col1[i]);
+                        out.writeInt(call.row1[i]);
+                        out.writeInt(call.col2[i]);
+                        out.writeInt(call.row2[i]);
+                        break;
+                }
+            }
+        }
+
+        out.writeInt(f.maxStack);
+    }
+
+    private static CompiledFormula readFormula(MappedInput in, String[] strings) throws IOException {
+        int n = in.getInt();
+        byte[] ops = new byte[n];
+        in.get(ops, 0, n);
+        int[] operands = new int[n];
+        for (int i = 0; i < n; i++) operands[i] = in.getInt();
+
+        double[] constants = new double[in.getInt()];
+        for (int i = 0; i < constants.length; i++) constants[i] = in.getDouble();
+
+        int cells = in.getInt();
+        int[] cols = new int[cells];
+        int[] rows = new int[cells];
+        for (int i = 0; i < cells; i++) {
+            cols[i] = in.getInt();
+            rows[i] = in.getInt();
+        }
+
+        FunctionCall[] calls = new FunctionCall[in.getInt()];
+        for (int c = 0; c < calls.length; c++) {
+            String name = strings[in.getInt()];
+            AggregateFunction fn = Functions.get(name);
+            if (fn == null) throw new IllegalArgumentException("Unknown function: " + name);
+
+            int argc = in.getInt();
+            byte[] kinds = new byte[argc];
+            int[] col1 = new int[argc], row1 = new int[argc], col2 = new int[argc], row2 = new int[argc];
+            CompiledFormula[] exprs = new CompiledFormula[argc];
+            String[] texts = new String[argc];
+
+            for (int i = 0; i < argc; i++) {
+                kinds[i] = in.get();
+                switch (kinds[i]) {
+                    case FunctionCall.ARG_EXPR:
+                        exprs[i] = readFormula(in, strings);
+                        break;
+                    case FunctionCall.ARG_TEXT:
+                        texts[i] = strings[in.getInt()];
+                        break;
+                    default:
+                        col1[i] = in.getInt();
+                        row1[i] = in.getInt();
+                        col2[i] = in.getInt();
+                        row2[i] = in.getInt();
+                        break;
+                }
+            }
+
+            Object binding = FormulaEvaluator.bind(name, fn, kinds, texts);
+            calls[c] = new FunctionCall(name, fn, binding, kinds, col1, row1, col2, row2, exprs, texts);
+        }
+
+        int maxStack = in.getInt();
+        return new CompiledFormula(ops, operands, constants, cols, rows, calls, maxStack);
+    }
+
+    // ==========================================================
+    // 3) String table
+    // ==========================================================
+
+    private static int intern(String s, Map<String, Integer> ids, List<String> strings) {
+        Integer id = ids.get(s);
+        if (id == null) {
+            id = strings.size();
+            ids.put(s, id);
+            strings.add(s);
+        }
+        return id;
+    }
+
+    private static String[] readStrings(MappedInput in) throws IOException {
+        String[] out = new String[in.getInt()];
+        byte[] buf = new byte[64];
+        for (int i = 0; i < out.length; i++) {
+            int len = in.getInt();
+            if (buf.length < len) buf = new byte[Math.max(len, buf.length * 2)];
+            in.get(buf, 0, len);
+            out[i] = new String(buf, 0, len, StandardCharsets.UTF_8);
+        }
+        return out;
+    }
+
+    // ==========================================================
+    // 4) Windowed reads
+    // ==========================================================
+
+    /**
+     * Sequential big-endian reader over a file of any size. The file is mapped one
+     * window at a time (like S2VMappedReader's chunks); a read that would run past
+     * the current window remaps it starting at the read position.
+     */
+    private static final class MappedInput {
+        private final FileChannel ch;
+        private final int window;
+        private long base;      // file offset of buf position 0
+        private ByteBuffer buf;
+
+        MappedInput(FileChannel ch, long position, int window) throws IOException {
+            this.ch = ch;
+            this.window = window;
+            remap(position);
+        }
+
+        private void remap(long position) throws IOException {
+            base = position;
+            buf = ch.map(FileChannel.MapMode.READ_ONLY, position, Math.min(window, ch.size() - position));
+        }
+
+        private ByteBuffer need(int n) throws IOException {
+            if (buf.remaining() < n) {
+                remap(base + buf.position());
+                if (buf.remaining() < n) throw new EOFException("Truncated snapshot");
+            }
+            return buf;
+        }
+
+        byte get() throws IOException { return need(1).get(); }
+        int getInt() throws IOException { return need(4).getInt(); }
+        long getLong() throws IOException { return need(8).getLong(); }
+        double getDouble() throws IOException { return need(8).getDouble(); }
+
+        void get(byte[] dst, int off, int len) throws IOException {
+            while (len > 0) {
+                int n = Math.min(len, Math.max(1, buf.remaining()));
+                need(n).get(dst, off, n);
+                off += n;
+                len -= n;
+            }
+        }
+    }
+}
@@ -1,10 +1,20 @@
 public class Cell {
-    private String raw = "";
+    private String raw = ""; // null for a number stored via setNumber, formatted on first read
     private CellType type = CellType.EMPTY;
     private double cachedNumber = 0.0;
+    private CompiledFormula formula;
+    private boolean valid = false; // FORMULA only: cachedNumber is current
+    RecalcMetrics.FormulaCost cost; // FORMULA only, set while metrics are on
 
     public void setRaw(String content) {
-        raw = (content == null) ? "" : content.trim();
+        String text = (content == null) ? "" : content.trim();
+
+        // compile first so a bad formula leaves the cell untouched
+        CompiledFormula compiled = text.startsWith("=") ? FormulaEvaluator.compile(text.substring(1)) : null;
+
+        raw = text;
+        formula = compiled;
+        valid = false;
 
         if (raw.isEmpty()) {
             type = CellType.EMPTY;
@@ -12,7 +22,7 @@ public class Cell {
             return;
         }
 
-        if (raw.startsWith("=")) {
+        if (compiled != null) {
             type = CellType.FORMULA;
             return;
         }
@@ -25,14 +35,43 @@ public class Cell {
         }
     }
 
+    // Reinstates a cell exactly as it was saved (see BinarySnapshotIO), without parsing anything
+    void restore(CellType type, String raw, double number, CompiledFormula compiled, boolean isValid) {
+        this.type = type;
+        this.raw = raw;
+        this.cachedNumber = number;
+        this.formula = compiled;
+        this.valid = isValid;
+    }
+
+    /** Stores a number whose raw text is {@link #formatNumber(double)}, without building it now. */
+    public void setNumber(double v) {
+        raw = null;
+        formula = null;
+        valid = false;
+        type = CellType.NUMBER;
+        cachedNumber = v;
+    }
+
     public String getRaw() {
+        if (raw == null) raw = formatNumber(cachedNumber);
         return raw;
     }
 
+    /** Canonical text of a number: no ".0" on whole numbers. */
+    public static String formatNumber(double v) {
+        if (v == Math.rint(v) && Math.abs(v) < 1e15) return Long.toString((long) v);
+        return Double.toString(v);
+    }
+
     public CellType getType() {
         return type;
     }
 
+    public CompiledFormula getFormula() {
+        return formula;
+    }
+
     public double getCachedNumber() {
         return cachedNumber;
     }
@@ -40,4 +79,16 @@ public class Cell {
     public void setCachedNumber(double v) {
         cachedNumber = v;
     }
+
+    public boolean isValid() {
+        return valid;
+    }
+
+    public void markValid() {
+        valid = true;
+    }
+
+    public void invalidate() {
+        valid = false;
+    }
 }
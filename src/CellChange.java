@@ -0,0 +1,30 @@
+/** One cell whose value changed in a recalculation. NaN stands for "could not be evaluated". */
+public final class CellChange {
+
+    final long key;
+    private final double oldValue;
+    private final double newValue;
+
+    CellChange(long key, double oldValue, double newValue) {
+        this.key = key;
+        this.oldValue = oldValue;
+        this.newValue = newValue;
+    }
+
+    public String getRef() {
+        return CellPos.toRef(key);
+    }
+
+    public double getOldValue() {
+        return oldValue;
+    }
+
+    public double getNewValue() {
+        return newValue;
+    }
+
+    @Override
+    public String toString() {
+        return getRef() + ": " + oldValue + " -> " + newValue;
+    }
+}
@@ -0,0 +1,17 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Threshold;
+
+/** A formula evaluation that took longer than the threshold (1 ms unless reconfigured). */
+@Name("spreadsheet.CellEvaluation")
+@Label("Cell Evaluation")
+@Category("Spreadsheet")
+@Description("Evaluation of one formula cell, including any stale precedents")
+@Threshold("1 ms")
+public class CellEvaluationEvent extends jdk.jfr.Event {
+
+    @Label("Cell")
+    String cell;
+}
@@ -22,10 +22,59 @@ public class CellPos {
         return new CellPos(col, row);
     }
 
+    // ==========================================================
+    // Packed keys: row in the high 32 bits, col in the low 32 bits.
+    // Sorting keys therefore gives row-major (row, col) order.
+    // ==========================================================
+
+    public static long pack(int col, int row) {
+        return ((long) row << 32) | (col & 0xFFFFFFFFL);
+    }
+
+    public static int col(long key) {
+        return (int) key;
+    }
+
+    public static int row(long key) {
+        return (int) (key >>> 32);
+    }
+
+    public static String toRef(long key) {
+        return toRef(col(key), row(key));
+    }
+
+    /** Same rules as {@link #parse}, but straight to a packed key without building substrings. */
+    public static long parseKey(String ref) {
+        int start = 0;
+        int end = ref.length();
+        while (start < end && Character.isWhitespace(ref.charAt(start))) start++;
+        while (end > start && Character.isWhitespace(ref.charAt(end - 1))) end--;
+
+        int i = start;
+        int col = 0;
+        while (i < end && Character.isLetter(ref.charAt(i))) {
+            if (col > (Integer.MAX_VALUE - 26) / 26) throw new IllegalArgumentException("Bad cell ref: " + ref.trim());
+            col = col * 26 + (Character.toUpperCase(ref.charAt(i)) - 'A' + 1);
+            i++;
+        }
+        if (i == start || i >= end) throw new IllegalArgumentException("Bad cell ref: " + ref.trim());
+
+        int row = 0;
+        for (; i < end; i++) {
+            char ch = ref.charAt(i);
+            if (ch < '0' || ch > '9') throw new IllegalArgumentException("Bad cell ref: " + ref.trim());
+            // same limit as Integer.parseInt in parse; a wrapped row would alias another cell
+            if (row > (Integer.MAX_VALUE - (ch - '0')) / 10) throw new IllegalArgumentException("Bad cell ref: " + ref.trim());
+            row = row * 10 + (ch - '0');
+        }
+        return pack(col - 1, row);
+    }
+
     public static int colToIndex(String col) {
         col = col.toUpperCase();
         int x = 0;
         for (int i = 0; i < col.length(); i++) {
+            if (x > (Integer.MAX_VALUE - 26) / 26) throw new IllegalArgumentException("Bad column: " + col);
             x = x * 26 + (col.charAt(i) - 'A' + 1);
         }
         return x - 1;
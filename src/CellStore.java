@@ -0,0 +1,40 @@
+/**
+ * Storage backend behind {@link Spreadsheet}. Cells are addressed by packed keys
+ * (see {@link CellPos#pack}). Formula and text cells always live as {@link Cell}
+ * objects; a backend may keep number cells in primitive form instead.
+ */
+public interface CellStore {
+
+    /** Receives the non-empty cells of one column slice, in ascending row order. */
+    interface ColumnVisitor {
+        void accept(int row, CellType type, double number);
+    }
+
+    /** The Cell object stored for key, or null if the cell is empty or held in primitive form. */
+    Cell cell(long key);
+
+    CellType type(long key);
+
+    /** Value of a NUMBER cell; 0 for anything else. */
+    double number(long key);
+
+    /** Raw content as entered ("" when empty). */
+    String raw(long key);
+
+    /** Stores the content of {@code cell} at key; an EMPTY cell removes the entry. */
+    void put(long key, Cell cell);
+
+    /** Stores a NUMBER whose raw text is {@link Cell#formatNumber(double)}. */
+    void putNumber(long key, double value);
+
+    /** Visits the non-empty cells of {@code col} between row1 and row2 (inclusive). */
+    void forEachInColumn(int col, int row1, int row2, ColumnVisitor v);
+
+    /** Visits every cell that is held as a Cell object. */
+    void forEachCell(LongMap.Visitor<Cell> v);
+
+    /** Keys of all non-empty cells. */
+    long[] keys();
+
+    int size();
+}
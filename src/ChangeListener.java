@@ -0,0 +1,9 @@
+import java.util.List;
+
+/**
+ * Receives the values that changed in one recalculation, for the cells of one
+ * subscription. Called on the thread that made the edit, after the recalculation.
+ */
+public interface ChangeListener {
+    void onChanges(List<CellChange> changes);
+}
@@ -1,5 +1,38 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Thrown when an edit would make a formula depend on itself. Raised as part of normal
+ * edit validation, so it does not capture a stack trace.
+ */
 public class CircularDependencyException extends RuntimeException {
+
+    private final List<String> cycle;
+
     public CircularDependencyException(String msg) {
-        super(msg);
+        super(msg, null, false, false);
+        this.cycle = Collections.emptyList();
+    }
+
+    /** @param path packed keys of the cycle, first == last */
+    public CircularDependencyException(long[] path) {
+        this(refs(path));
+    }
+
+    private CircularDependencyException(List<String> cycle) {
+        super("Circular dependency: " + String.join(" -> ", cycle), null, false, false);
+        this.cycle = cycle;
+    }
+
+    /** The cells around the cycle, e.g. [A1, B1, A1]; empty when the path is unknown. */
+    public List<String> getCycle() {
+        return cycle;
+    }
+
+    private static List<String> refs(long[] path) {
+        List<String> out = new ArrayList<>(path.length);
+        for (long k : path) out.add(CellPos.toRef(k));
+        return Collections.unmodifiableList(out);
     }
 }
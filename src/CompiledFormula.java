@@ -0,0 +1,68 @@
+/**
+ * Immutable, pre-parsed form of a formula (the part after '=').
+ * The program is a flat RPN sequence: constants are already parsed,
+ * cell refs are resolved to (col,row) and function calls are compiled
+ * once into {@link FunctionCall}s. Built by {@link FormulaEvaluator#compile}.
+ */
+public final class CompiledFormula {
+    static final byte PUSH_CONST = 0;
+    static final byte PUSH_CELL  = 1;
+    static final byte CALL       = 2;
+    static final byte ADD        = 3;
+    static final byte SUB        = 4;
+    static final byte MUL        = 5;
+    static final byte DIV        = 6;
+
+    final byte[] ops;
+    final int[] operands;      // index into constants / cellCols+cellRows / calls
+    final double[] constants;
+    final int[] cellCols;      // 0-based
+    final int[] cellRows;      // 1-based
+    final FunctionCall[] calls;
+    final int maxStack;
+
+    CompiledFormula(byte[] ops, int[] operands, double[] constants,
+                    int[] cellCols, int[] cellRows, FunctionCall[] calls, int maxStack) {
+        this.ops = ops;
+        this.operands = operands;
+        this.constants = constants;
+        this.cellCols = cellCols;
+        this.cellRows = cellRows;
+        this.calls = calls;
+        this.maxStack = maxStack;
+    }
+
+    /** Receives every cell and range this formula reads, including inside function calls. */
+    public interface PrecedentVisitor {
+        void cell(int col, int row);
+        void range(int col1, int row1, int col2, int row2);
+    }
+
+    public void visitPrecedents(PrecedentVisitor v) {
+        for (int i = 0; i < cellCols.length; i++) {
+            v.cell(cellCols[i], cellRows[i]);
+        }
+        for (FunctionCall call : calls) {
+            call.visitPrecedents(v);
+        }
+    }
+
+    // The program in postfix form, e.g. "A1 2.0 * SUMA(B1:B3) +"
+    String canonical() {
+        StringBuilder sb = new StringBuilder();
+        for (int pc = 0; pc < ops.length; pc++) {
+            if (pc > 0) sb.append(' ');
+            int x = operands[pc];
+            switch (ops[pc]) {
+                case PUSH_CONST: sb.append(constants[x]); break;
+                case PUSH_CELL:  sb.append(CellPos.toRef(cellCols[x], cellRows[x])); break;
+                case CALL:       sb.append(calls[x].canonical()); break;
+                case ADD:        sb.append('+'); break;
+                case SUB:        sb.append('-'); break;
+                case MUL:        sb.append('*'); break;
+                default:         sb.append('/'); break;
+            }
+        }
+        return sb.toString();
+    }
+}
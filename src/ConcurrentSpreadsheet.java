@@ -0,0 +1,101 @@
+import java.io.IOException;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A spreadsheet many threads can read while one thread at a time writes.
+ *
+ * Writes go to an ordinary {@link Spreadsheet} under a lock and are fully recalculated
+ * before anything is published. Readers never touch it: they read the latest
+ * {@link SheetSnapshot} behind a volatile field, so reads take no lock and never block.
+ * Snapshots share structure, so publishing one only copies the cells the write changed.
+ */
+public class ConcurrentSpreadsheet {
+
+    private Spreadsheet sheet;          // only touched while holding writeLock
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private volatile SheetSnapshot view;
+
+    public ConcurrentSpreadsheet() {
+        this(new Spreadsheet());
+    }
+
+    /** Takes ownership of {@code sheet}; it must not be used directly afterwards. */
+    public ConcurrentSpreadsheet(Spreadsheet sheet) {
+        this.sheet = sheet;
+        writeLock.lock();
+        try {
+            view = sheet.snapshot();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    // ==========================================================
+    // Writes
+    // ==========================================================
+
+    public void setCell(String ref, String content) {
+        long key = Spreadsheet.key(ref);
+        writeLock.lock();
+        try {
+            sheet.setCell(key, content);
+            view = sheet.snapshot();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /** See {@link Spreadsheet#setCells}; readers see either none or all of the batch. */
+    public void setCells(Map<String, String> edits) {
+        writeLock.lock();
+        try {
+            sheet.setCells(edits);
+            view = sheet.snapshot();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Replaces the whole sheet with the file's contents. The file is loaded and
+     * recalculated before the lock is taken; readers switch to it in one step.
+     */
+    public void load(String filename) throws IOException {
+        Spreadsheet loaded = SpreadsheetIO.load(filename);
+        writeLock.lock();
+        try {
+            sheet = loaded;
+            view = sheet.snapshot();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    // ==========================================================
+    // Reads (lock-free)
+    // ==========================================================
+
+    /** The latest published view. Read several cells from one view to get a consistent set. */
+    public SheetSnapshot read() {
+        return view;
+    }
+
+    public double evaluateCell(String ref) {
+        return view.evaluateCell(ref);
+    }
+
+    public String getRaw(String ref) {
+        return view.getRaw(ref);
+    }
+
+    public Set<String> allNonEmptyCells() {
+        return view.allNonEmptyCells();
+    }
+
+    /** Saves the latest published view; writers are not held up while the file is written. */
+    public void save(String filename) throws IOException {
+        SpreadsheetIO.save(view, filename);
+    }
+}
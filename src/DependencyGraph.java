@@ -0,0 +1,330 @@
+import java.util.*;
+
+/**
+ * Precedent/dependent edges between cells, kept in sync as formulas are set or cleared.
+ * Cells are identified by packed keys (see {@link CellPos#pack}).
+ * Single-cell refs are stored as direct edges; ranges are stored once per formula and
+ * indexed by column, so a huge range does not turn into millions of edges.
+ */
+public class DependencyGraph {
+
+    private static final long[] NONE = new long[0];
+
+    private static class RangeDep {
+        final long formula;
+        final int col1, row1, col2, row2;
+
+        RangeDep(long formula, int col1, int row1, int col2, int row2) {
+            this.formula = formula;
+            this.col1 = col1;
+            this.row1 = row1;
+            this.col2 = col2;
+            this.row2 = row2;
+        }
+
+        boolean containsRow(int row) {
+            return row >= row1 && row <= row2;
+        }
+    }
+
+    private static class Precedents {
+        final LongSet cells = new LongSet(4);
+        final List<RangeDep> ranges = new ArrayList<>(0);
+    }
+
+    // precedent -> formulas that reference it directly
+    private final LongMap<LongSet> dependents = new LongMap<>();
+    // column -> ranges covering (part of) that column
+    private final LongMap<List<RangeDep>> rangesByCol = new LongMap<>();
+    // formula -> what it reads (needed to drop the old edges)
+    private final LongMap<Precedents> precedents = new LongMap<>();
+
+    /** Replaces the outgoing edges of {@code key}. A null formula just removes them. */
+    public void setFormula(long key, CompiledFormula formula) {
+        remove(key);
+        if (formula == null) return;
+
+        Precedents p = new Precedents();
+        formula.visitPrecedents(new CompiledFormula.PrecedentVisitor() {
+            @Override
+            public void cell(int col, int row) {
+                long pre = CellPos.pack(col, row);
+                if (!p.cells.add(pre)) return;
+
+                LongSet s = dependents.get(pre);
+                if (s == null) dependents.put(pre, s = new LongSet(4));
+                s.add(key);
+            }
+
+            @Override
+            public void range(int col1, int row1, int col2, int row2) {
+                RangeDep r = new RangeDep(key, col1, row1, col2, row2);
+                p.ranges.add(r);
+                for (int col = col1; col <= col2; col++) {
+                    List<RangeDep> l = rangesByCol.get(col);
+                    if (l == null) rangesByCol.put(col, l = new ArrayList<>());
+                    l.add(r);
+                }
+            }
+        });
+        precedents.put(key, p);
+    }
+
+    private void remove(long key) {
+        Precedents old = precedents.remove(key);
+        if (old == null) return;
+
+        for (long pre : old.cells.toArray()) {
+            LongSet s = dependents.get(pre);
+            if (s == null) continue;
+            s.remove(key);
+            if (s.isEmpty()) dependents.remove(pre);
+        }
+        for (RangeDep r : old.ranges) {
+            for (int col = r.col1; col <= r.col2; col++) {
+                List<RangeDep> l = rangesByCol.get(col);
+                if (l == null) continue;
+                l.remove(r);
+                if (l.isEmpty()) rangesByCol.remove(col);
+            }
+        }
+    }
+
+    /**
+     * The cycle that giving {@code key} this formula would close, as a path
+     * key -> ... -> key, or null if there is none. Only cells downstream of key can
+     * close it, so only that region is searched; breadth-first, so the reported cycle
+     * is a shortest one. Call before {@link #setFormula}.
+     */
+    public long[] findCycle(long key, CompiledFormula formula) {
+        LongSet cells = new LongSet(4);
+        List<int[]> ranges = new ArrayList<>(0);
+        formula.visitPrecedents(new CompiledFormula.PrecedentVisitor() {
+            @Override
+            public void cell(int col, int row) {
+                cells.add(CellPos.pack(col, row));
+            }
+
+            @Override
+            public void range(int col1, int row1, int col2, int row2) {
+                ranges.add(new int[]{col1, row1, col2, row2});
+            }
+        });
+        if (cells.isEmpty() && ranges.isEmpty()) return null;
+
+        long[] queue = new long[16];
+        int[] parent = new int[16];
+        LongSet seen = new LongSet();
+        queue[0] = key;
+        parent[0] = -1;
+        seen.add(key);
+        int n = 1;
+
+        for (int i = 0; i < n; i++) {
+            long k = queue[i];
+            if (reads(cells, ranges, k)) return path(queue, parent, i);
+
+            for (long d : directDependents(k)) {
+                if (!seen.add(d)) continue;
+                if (n == queue.length) {
+                    queue = Arrays.copyOf(queue, n * 2);
+                    parent = Arrays.copyOf(parent, n * 2);
+                }
+                queue[n] = d;
+                parent[n++] = i;
+            }
+        }
+        return null;
+    }
+
+    private static boolean reads(LongSet cells, List<int[]> ranges, long k) {
+        if (cells.contains(k)) return true;
+        int col = CellPos.col(k), row = CellPos.row(k);
+        for (int[] r : ranges) {
+            if (col >= r[0] && col <= r[2] && row >= r[1] && row <= r[3]) return true;
+        }
+        return false;
+    }
+
+    // queue[0] -> ... -> queue[last] -> queue[0]
+    private static long[] path(long[] queue, int[] parent, int last) {
+        int len = 1;
+        for (int i = last; i != 0; i = parent[i]) len++;
+
+        long[] out = new long[len + 1];
+        int at = len - 1;
+        for (int i = last; i != 0; i = parent[i]) out[at--] = queue[i];
+        out[0] = queue[0];
+        out[len] = queue[0];
+        return out;
+    }
+
+    /** Formulas that read {@code key} directly, through a single ref or a range. */
+    public long[] directDependents(long key) {
+        LongSet s = dependents.get(key);
+        List<RangeDep> l = rangesByCol.get(CellPos.col(key));
+        if (l == null) return (s == null) ? NONE : s.toArray();
+
+        LongSet out = new LongSet();
+        if (s != null) {
+            for (long d : s.toArray()) out.add(d);
+        }
+        int row = CellPos.row(key);
+        for (RangeDep r : l) {
+            if (r.containsRow(row)) out.add(r.formula);
+        }
+        return out.toArray();
+    }
+
+    /**
+     * All transitive dependents of {@code key} (not including key itself), in an order
+     * where every formula comes after the formulas it reads. Iterative, so long chains
+     * do not overflow the stack.
+     */
+    public long[] dependentsInOrder(long key) {
+        long[] order = new long[16];
+        int n = 0;
+
+        LongSet seen = new LongSet();
+        Deque<long[]> children = new ArrayDeque<>();
+        long[] path = new long[16];
+        int[] next = new int[16];
+        int depth = 0;
+
+        seen.add(key);
+        children.push(directDependents(key));
+        path[0] = key;
+        next[0] = 0;
+
+        while (depth >= 0) {
+            long[] kids = children.peek();
+            if (next[depth] < kids.length) {
+                long k = kids[next[depth]++];
+                if (!seen.add(k)) continue;
+
+                depth++;
+                if (depth == path.length) {
+                    path = Arrays.copyOf(path, depth * 2);
+                    next = Arrays.copyOf(next, depth * 2);
+                }
+                path[depth] = k;
+                next[depth] = 0;
+                children.push(directDependents(k));
+            } else {
+                children.pop();
+                if (n == order.length) order = Arrays.copyOf(order, n * 2);
+                order[n++] = path[depth--];
+            }
+        }
+
+        // post-order finishes with key itself; drop it and reverse
+        long[] out = new long[n - 1];
+        for (int i = 0; i < out.length; i++) out[i] = order[n - 2 - i];
+        return out;
+    }
+
+    /**
+     * All formulas grouped into topological levels: level 0 reads no other formula,
+     * level n only reads formulas from levels below n (Kahn's algorithm).
+     */
+    public List<long[]> levels() {
+        return levelsOf(precedents.keys());
+    }
+
+    /**
+     * Like {@link #levels()}, but only over {@code roots} and their transitive
+     * dependents: the region a batch of edits makes stale. Roots are included even
+     * when they are not formulas.
+     */
+    public List<long[]> levels(long[] roots) {
+        LongSet seen = new LongSet(roots.length * 2);
+        long[] region = new long[Math.max(16, roots.length)];
+        int n = 0;
+        for (long r : roots) {
+            if (!seen.add(r)) continue;
+            if (n == region.length) region = Arrays.copyOf(region, n * 2);
+            region[n++] = r;
+        }
+        for (int i = 0; i < n; i++) {
+            for (long d : directDependents(region[i])) {
+                if (!seen.add(d)) continue;
+                if (n == region.length) region = Arrays.copyOf(region, n * 2);
+                region[n++] = d;
+            }
+        }
+        return levelsOf(Arrays.copyOf(region, n));
+    }
+
+    // Every dependent of a node in nodes must itself be in nodes
+    private List<long[]> levelsOf(long[] nodes) {
+        LongMap<long[]> out = new LongMap<>(nodes.length);
+        LongMap<int[]> inDegree = new LongMap<>(nodes.length);
+
+        for (long f : nodes) {
+            inDegree.put(f, new int[1]);
+        }
+        for (long f : nodes) {
+            long[] deps = directDependents(f);
+            out.put(f, deps);
+            for (long d : deps) inDegree.get(d)[0]++;
+        }
+
+        List<long[]> levels = new ArrayList<>();
+        long[] current = new long[nodes.length];
+        int size = 0;
+        for (long f : nodes) {
+            if (inDegree.get(f)[0] == 0) current[size++] = f;
+        }
+
+        int placed = 0;
+        while (size > 0) {
+            levels.add(Arrays.copyOf(current, size));
+            placed += size;
+
+            long[] level = levels.get(levels.size() - 1);
+            size = 0;
+            for (long f : level) {
+                for (long d : out.get(f)) {
+                    if (--inDegree.get(d)[0] == 0) current[size++] = d;
+                }
+            }
+        }
+
+        if (placed != nodes.length) {
+            throw new CircularDependencyException(leftoverCycle(nodes, out, inDegree));
+        }
+        return levels;
+    }
+
+    // Every node Kahn could not place still has an unplaced precedent, so walking
+    // precedents from any of them must come back around to a node already on the walk
+    private static long[] leftoverCycle(long[] nodes, LongMap<long[]> out, LongMap<int[]> inDegree) {
+        LongMap<Long> pred = new LongMap<>();
+        long start = 0;
+        for (long f : nodes) {
+            if (inDegree.get(f)[0] == 0) continue;
+            start = f;
+            for (long d : out.get(f)) {
+                if (inDegree.get(d)[0] > 0) pred.put(d, f);
+            }
+        }
+
+        LongMap<Integer> onWalk = new LongMap<>();
+        long[] walk = new long[16];
+        int n = 0;
+        long k = start;
+        while (!onWalk.containsKey(k)) {
+            onWalk.put(k, n);
+            if (n == walk.length) walk = Arrays.copyOf(walk, n * 2);
+            walk[n++] = k;
+            k = pred.get(k);
+        }
+
+        // walk[from..n-1] runs against the edges; reverse it into dependency order
+        int from = onWalk.get(k);
+        long[] cycle = new long[n - from + 1];
+        for (int i = 0; i < n - from; i++) cycle[i] = walk[n - 1 - i];
+        cycle[n - from] = cycle[0];
+        return cycle;
+    }
+}
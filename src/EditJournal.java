@@ -0,0 +1,355 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of setCell/setCells operations for crash recovery.
+ *
+ * Each record is one append, a single edit or a whole batch:
+ * {@code [int length][int crc32][int count]} followed by count entries of
+ * {@code [long key][int bytes][UTF-8 content]}; length and CRC cover everything after
+ * the CRC. A torn or corrupt tail is detected by length/CRC and dropped on replay (and
+ * truncated when the journal is reopened), so a batch is replayed whole or not at all.
+ *
+ * Every append is written to the file before it returns, so a JVM crash loses
+ * nothing; the fsync policy only decides when the OS is made to put it on disk.
+ * Writes and fsyncs are group-committed: one covers every record appended before
+ * it, so concurrent writers share them. On startup,
+ * {@link #recover} loads the last S2V snapshot and replays the journal onto it;
+ * {@link #compact} writes a fresh snapshot and empties the journal.
+ */
+public class EditJournal implements Closeable {
+
+    public enum FsyncPolicy {
+        /** Every append returns only once it is on disk. */
+        ALWAYS,
+        /** Appends return once written; a background flusher forces the journal every periodMillis. */
+        PERIODIC,
+        /** Left to the OS; only forced on sync(), compact() and close(). */
+        NEVER
+    }
+
+    private static final int RECORD_HEADER = 8;
+    private static final int ENTRY_HEADER = 12;
+
+    private final Path path;
+    private final FileChannel channel;
+    private final FsyncPolicy policy;
+    private final long periodNanos;
+    private final ScheduledExecutorService flusher; // PERIODIC only
+
+    private final Object lock = new Object();     // guards the pending buffer and counters
+    private final Object syncLock = new Object(); // one writer to the channel at a time
+    private byte[] pending = new byte[4096];
+    private int pendingSize;
+    private long appendedSeq;
+    private long writtenSeq;                      // guarded by syncLock
+    private long forcedSeq;                       // guarded by syncLock
+    private long lastForce = System.nanoTime();   // guarded by syncLock
+
+    private Spreadsheet compactSheet;
+    private String compactTarget;
+    private int compactEvery;
+    private int sinceCompact;
+
+    public EditJournal(String journalPath, FsyncPolicy policy, long periodMillis) throws IOException {
+        if (policy == FsyncPolicy.PERIODIC && periodMillis <= 0) {
+            throw new IllegalArgumentException("PERIODIC needs a positive period, got " + periodMillis);
+        }
+        this.path = Paths.get(journalPath);
+        this.policy = policy;
+        this.periodNanos = periodMillis * 1_000_000L;
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        // drop a torn tail left by a crash so new records follow the last good one
+        long end = scan(channel, null);
+        channel.truncate(end);
+        channel.position(end);
+
+        if (policy == FsyncPolicy.PERIODIC) {
+            flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "journal-flusher");
+                t.setDaemon(true);
+                return t;
+            });
+            flusher.scheduleWithFixedDelay(this::flushQuietly, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+        } else {
+            flusher = null;
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            sync();
+        } catch (IOException e) {
+            // the next append or sync() reports it
+        }
+    }
+
+    /** Applies the edit, then journals it. Edits rejected by the sheet are not journaled. */
+    public void setCell(Spreadsheet sheet, String ref, String content) throws IOException {
+        sheet.setCell(ref, content);
+        append(ref, content);
+    }
+
+    /** Applies the edits as one transaction, then journals them with a single commit. */
+    public void setCells(Spreadsheet sheet, Map<String, String> edits) throws IOException {
+        sheet.setCells(edits);
+        append(edits);
+    }
+
+    public void append(String ref, String content) throws IOException {
+        append(Collections.singletonMap(ref, content));
+    }
+
+    public void append(Map<String, String> edits) throws IOException {
+        long[] keys = new long[edits.size()];
+        byte[][] texts = new byte[keys.length][];
+        LongSet seen = new LongSet(keys.length);
+        int n = 0;
+        for (Map.Entry<String, String> e : edits.entrySet()) {
+            String content = e.getValue();
+            keys[n] = CellPos.parseKey(e.getKey());
+            if (!seen.add(keys[n])) {
+                throw new IllegalArgumentException("Cell " + CellPos.toRef(keys[n]) + " is edited twice in one batch");
+            }
+            texts[n++] = (content == null ? "" : content).getBytes(StandardCharsets.UTF_8);
+        }
+        if (n == 0) return;
+
+        long seq;
+        synchronized (lock) {
+            stage(keys, texts, n);
+            seq = appendedSeq;
+        }
+
+        commit(seq, policy == FsyncPolicy.ALWAYS);
+        maybeCompact();
+    }
+
+    // One record for the whole append, under one CRC. Caller holds lock
+    private void stage(long[] keys, byte[][] texts, int n) {
+        int len = 4;
+        for (int i = 0; i < n; i++) len += ENTRY_HEADER + texts[i].length;
+        ensure(RECORD_HEADER + len);
+
+        CRC32 crc = new CRC32();
+        ByteBuffer b = ByteBuffer.wrap(pending, pendingSize, RECORD_HEADER + len);
+        b.putInt(len);
+        int crcAt = b.position();
+        b.putInt(0);
+        b.putInt(n);
+        for (int i = 0; i < n; i++) {
+            b.putLong(keys[i]);
+            b.putInt(texts[i].length);
+            b.put(texts[i]);
+        }
+        crc.update(pending, pendingSize + RECORD_HEADER, len);
+        ByteBuffer.wrap(pending, crcAt, 4).putInt((int) crc.getValue());
+
+        pendingSize += RECORD_HEADER + len;
+        appendedSeq++;
+        sinceCompact += n;
+    }
+
+    /** Forces everything appended so far to disk. */
+    public void sync() throws IOException {
+        long seq;
+        synchronized (lock) {
+            seq = appendedSeq;
+        }
+        commit(seq, true);
+    }
+
+    // Group commit: whoever gets syncLock writes out all pending records, so callers
+    // that were waiting behind it usually find their record already written (and forced).
+    // Under PERIODIC a commit also forces when the period is up, between flusher runs.
+    private void commit(long seq, boolean force) throws IOException {
+        synchronized (syncLock) {
+            if (writtenSeq < seq) {
+                ByteBuffer batch;
+                long upTo;
+                synchronized (lock) {
+                    batch = ByteBuffer.wrap(pending, 0, pendingSize);
+                    pending = new byte[Math.max(4096, pending.length)];
+                    pendingSize = 0;
+                    upTo = appendedSeq;
+                }
+                while (batch.hasRemaining()) channel.write(batch);
+                writtenSeq = upTo;
+            }
+
+            if (!force && policy == FsyncPolicy.PERIODIC) force = System.nanoTime() - lastForce >= periodNanos;
+            if (force && forcedSeq < writtenSeq) {
+                channel.force(false);
+                forcedSeq = writtenSeq;
+                lastForce = System.nanoTime();
+            }
+        }
+    }
+
+    private void ensure(int extra) {
+        if (pendingSize + extra > pending.length) {
+            pending = Arrays.copyOf(pending, Math.max(pending.length * 2, pendingSize + extra));
+        }
+    }
+
+    // ==========================================================
+    // Compaction
+    // ==========================================================
+
+    /** Compacts automatically after every {@code everyRecords} appends. 0 turns it off. */
+    public void autoCompact(Spreadsheet sheet, String snapshotPath, int everyRecords) {
+        synchronized (lock) {
+            compactSheet = sheet;
+            compactTarget = snapshotPath;
+            compactEvery = everyRecords;
+        }
+    }
+
+    private void maybeCompact() throws IOException {
+        Spreadsheet sheet;
+        String target;
+        synchronized (lock) {
+            if (compactEvery <= 0 || sinceCompact < compactEvery) return;
+            sheet = compactSheet;
+            target = compactTarget;
+        }
+        compact(sheet, target);
+    }
+
+    /**
+     * Writes the sheet to a fresh S2V file, atomically replaces {@code snapshotPath}
+     * with it and empties the journal. The sheet must reflect every journaled edit.
+     */
+    public void compact(Spreadsheet sheet, String snapshotPath) throws IOException {
+        synchronized (syncLock) {
+            Path target = Paths.get(snapshotPath);
+            Path tmp = Paths.get(snapshotPath + ".tmp");
+            try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                SpreadsheetIO.save(sheet, out);
+                out.force(true);
+            }
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+            synchronized (lock) {
+                pendingSize = 0;
+                writtenSeq = appendedSeq;
+                forcedSeq = appendedSeq;
+                sinceCompact = 0;
+            }
+            channel.truncate(0);
+            channel.position(0);
+            channel.force(true);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (flusher != null) {
+            flusher.shutdown();
+            try {
+                flusher.awaitTermination(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        sync();
+        channel.close();
+    }
+
+    // ==========================================================
+    // Recovery
+    // ==========================================================
+
+    /**
+     * Loads the S2V snapshot (if it exists) and replays the journal (if it exists) onto
+     * it. Nothing is recalculated here: formulas are evaluated when first read (see
+     * {@link Spreadsheet#invalidateAll}), so a dependent that setCell left unevaluable
+     * reports its error when read instead of refusing the whole recovery.
+     */
+    public static Spreadsheet recover(String snapshotPath, String journalPath) throws IOException {
+        Spreadsheet sheet = Files.exists(Paths.get(snapshotPath))
+                ? SpreadsheetIO.loadLazy(snapshotPath)
+                : new Spreadsheet();
+        replay(journalPath, sheet);
+        return sheet;
+    }
+
+    /**
+     * Applies every intact record through the bulk path and leaves the formulas to be
+     * evaluated when read, as {@link #recover} does.
+     * @return the number of records replayed
+     */
+    public static int replay(String journalPath, Spreadsheet sheet) throws IOException {
+        int count = apply(journalPath, sheet);
+        sheet.invalidateAll();
+        return count;
+    }
+
+    private static int apply(String journalPath, Spreadsheet sheet) throws IOException {
+        Path p = Paths.get(journalPath);
+        if (!Files.exists(p)) return 0;
+
+        int[] count = {0};
+        try (FileChannel ch = FileChannel.open(p, StandardOpenOption.READ)) {
+            scan(ch, (key, content) -> {
+                sheet.putRaw(key, content);
+                count[0]++;
+            });
+        }
+        return count[0];
+    }
+
+    private interface RecordVisitor {
+        void accept(long key, String content);
+    }
+
+    // Walks the intact records from the start; returns the offset just past the last one.
+    // Entries of a record are only visited once its CRC has checked out.
+    private static long scan(FileChannel ch, RecordVisitor v) throws IOException {
+        long size = ch.size();
+        if (size == 0) return 0;
+
+        ByteBuffer in = ch.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        CRC32 crc = new CRC32();
+        byte[] buf = new byte[256];
+
+        while (in.remaining() >= RECORD_HEADER) {
+            int start = in.position();
+            int len = in.getInt();
+            int expected = in.getInt();
+            if (len < 4 || len > in.remaining()) return start;
+
+            if (buf.length < len) buf = new byte[Math.max(len, buf.length * 2)];
+            in.get(buf, 0, len);
+            crc.reset();
+            crc.update(buf, 0, len);
+            if ((int) crc.getValue() != expected) return start;
+
+            if (v != null) {
+                ByteBuffer r = ByteBuffer.wrap(buf, 0, len);
+                int count = r.getInt();
+                for (int i = 0; i < count; i++) {
+                    long key = r.getLong();
+                    int bytes = r.getInt();
+                    v.accept(key, new String(buf, r.position(), bytes, StandardCharsets.UTF_8));
+                    r.position(r.position() + bytes);
+                }
+            }
+        }
+        return in.position();
+    }
+}
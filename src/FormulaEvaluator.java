@@ -2,185 +2,272 @@ import java.util.*;
 
 public class FormulaEvaluator {
 
-    private static final Set<String> FN = new HashSet<>(Arrays.asList(
-            "SUMA", "MIN", "MAX", "PROMEDIO"
-    ));
-
-    public static double evaluate(String expr, Spreadsheet sheet, Set<String> visiting) {
-        if (expr == null) throw new IllegalArgumentException("Null expression");
-        expr = expr.replace(" ", "");
-
-        expr = reduceFunctions(expr, sheet, visiting);
-
-
-        List<Token> tokens = tokenizeArithmetic(expr);
-        List<Token> rpn = ShuntingYard.toRPN(tokens);
-        return evalRPN(rpn, sheet, visiting);
+    public static double evaluate(String expr, Spreadsheet sheet, LongSet visiting) {
+        return run(compile(expr), sheet, visiting);
     }
 
     // ==========================================================
-    // 1) Function reduction: turn MAX(...), SUMA(...), etc into numbers
+    // 1) Compilation: text -> tokens -> RPN -> flat program (done once per formula)
     // ==========================================================
 
-    private static String reduceFunctions(String expr, Spreadsheet sheet, Set<String> visiting) {
-        StringBuilder out = new StringBuilder();
-        int i = 0;
-
-        while (i < expr.length()) {
-            char ch = expr.charAt(i);
+    public static CompiledFormula compile(String expr) {
+        if (expr == null) throw new IllegalArgumentException("Null expression");
+        RecalcMetrics m = RecalcMetrics.active;
+        long start = (m != null) ? System.nanoTime() : 0L;
+        expr = stripSpaces(expr);
 
-            if (Character.isLetter(ch)) {
-                // read letters
-                int j = i;
-                while (j < expr.length() && Character.isLetter(expr.charAt(j))) j++;
-                String word = expr.substring(i, j);
+        List<Token> tokens = tokenize(expr);
+        List<Token> rpn = ShuntingYard.toRPN(tokens);
+        CompiledFormula f = assemble(rpn);
+        if (m != null) m.compiled(System.nanoTime() - start);
+        return f;
+    }
 
-                // function if word is known function and next char is '('
-                if (FN.contains(word) && j < expr.length() && expr.charAt(j) == '(') {
-                    int open = j;
-                    int close = findMatchingParen(expr, open);
-                    String inside = expr.substring(open + 1, close);
+    private static CompiledFormula assemble(List<Token> rpn) {
+        byte[] ops = new byte[rpn.size()];
+        int[] operands = new int[rpn.size()];
+        List<Double> constants = new ArrayList<>();
+        List<int[]> cells = new ArrayList<>();
+        List<FunctionCall> calls = new ArrayList<>();
 
-                    double val = evalFunction(word, inside, sheet, visiting);
-                    out.append(toCompactNumber(val));
+        int depth = 0;
+        int maxDepth = 0;
 
-                    i = close + 1;
-                    continue;
+        for (int pc = 0; pc < rpn.size(); pc++) {
+            Token t = rpn.get(pc);
+            switch (t.type) {
+                case NUMBER:
+                    ops[pc] = CompiledFormula.PUSH_CONST;
+                    operands[pc] = constants.size();
+                    constants.add(Double.parseDouble(t.text));
+                    depth++;
+                    break;
+                case CELL: {
+                    CellPos p = CellPos.parse(t.text);
+                    ops[pc] = CompiledFormula.PUSH_CELL;
+                    operands[pc] = cells.size();
+                    cells.add(new int[]{p.col, p.row});
+                    depth++;
+                    break;
                 }
-
-                // not a function name => keep as it is (likely part of cell ref like A1, AA12)
-                out.append(word);
-                i = j;
-                continue;
+                case FUNCTION:
+                    ops[pc] = CompiledFormula.CALL;
+                    operands[pc] = calls.size();
+                    calls.add(t.call);
+                    depth++;
+                    break;
+                case OPERATOR:
+                    if (depth < 2) throw new IllegalArgumentException("Syntax error");
+                    ops[pc] = opCode(t.text);
+                    depth--;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unexpected token in RPN: " + t.type);
             }
-
-            out.append(ch);
-            i++;
+            maxDepth = Math.max(maxDepth, depth);
         }
 
-        String reduced = out.toString();
+        if (depth != 1) throw new IllegalArgumentException("Bad expression");
 
+        double[] consts = new double[constants.size()];
+        for (int i = 0; i < consts.length; i++) consts[i] = constants.get(i);
 
-        if (containsFunctionCall(reduced) && !reduced.equals(expr)) {
-            return reduceFunctions(reduced, sheet, visiting);
+        int[] cols = new int[cells.size()];
+        int[] rows = new int[cells.size()];
+        for (int i = 0; i < cols.length; i++) {
+            cols[i] = cells.get(i)[0];
+            rows[i] = cells.get(i)[1];
         }
-        return reduced;
-    }
 
-    private static boolean containsFunctionCall(String s) {
-        for (String f : FN) {
-            if (s.contains(f + "(")) return true;
-        }
-        return false;
+        return new CompiledFormula(ops, operands, consts, cols, rows,
+                calls.toArray(new FunctionCall[0]), maxDepth);
     }
 
-    private static int findMatchingParen(String s, int openIdx) {
-        int depth = 1;
-        for (int k = openIdx + 1; k < s.length(); k++) {
-            if (s.charAt(k) == '(') depth++;
-            else if (s.charAt(k) == ')') depth--;
-            if (depth == 0) return k;
+    private static byte opCode(String op) {
+        switch (op) {
+            case "+": return CompiledFormula.ADD;
+            case "-": return CompiledFormula.SUB;
+            case "*": return CompiledFormula.MUL;
+            case "/": return CompiledFormula.DIV;
+            default: throw new IllegalArgumentException("Unknown operator: " + op);
         }
-        throw new IllegalArgumentException("Missing ')' in expression");
     }
 
-    private static double evalFunction(String name, String inside, Spreadsheet sheet, Set<String> visiting) {
-        List<String> args = splitArgsTopLevel(inside);
-        List<Double> values = new ArrayList<>();
+    // ==========================================================
+    // 2) Function calls: MAX(...), SUMA(...), etc compiled into FunctionCall
+    // ==========================================================
 
-        for (String a : args) {
+    private static FunctionCall compileCall(String name, AggregateFunction fn, String inside) {
+        List<String> args = new ArrayList<>();
+        for (String a : splitArgsTopLevel(inside)) {
             a = a.trim();
-            if (a.isEmpty()) continue;
+            if (!a.isEmpty()) args.add(a);
+        }
 
-            if (isRange(a)) {
-                for (String ref : expandRangeRefs(a)) {
-                    addCellForFunction(name, ref, values, sheet, visiting);
-                }
+        int n = args.size();
+        byte[] kinds = new byte[n];
+        int[] col1 = new int[n], row1 = new int[n], col2 = new int[n], row2 = new int[n];
+        CompiledFormula[] exprs = new CompiledFormula[n];
+        String[] texts = new String[n];
+
+        for (int i = 0; i < n; i++) {
+            String a = args.get(i);
+
+            if (a.length() >= 2 && a.startsWith("\"") && a.endsWith("\"")) {
+                kinds[i] = FunctionCall.ARG_TEXT;
+                texts[i] = a.substring(1, a.length() - 1);
+            } else if (isRange(a)) {
+                String[] p = a.split(":");
+                CellPos c1 = CellPos.parse(p[0]);
+                CellPos c2 = CellPos.parse(p[1]);
+                kinds[i] = FunctionCall.ARG_RANGE;
+                col1[i] = Math.min(c1.col, c2.col);
+                col2[i] = Math.max(c1.col, c2.col);
+                row1[i] = Math.min(c1.row, c2.row);
+                row2[i] = Math.max(c1.row, c2.row);
             } else if (isCellRef(a)) {
-                addCellForFunction(name, a, values, sheet, visiting);
+                CellPos c = CellPos.parse(a);
+                kinds[i] = FunctionCall.ARG_CELL;
+                col1[i] = col2[i] = c.col;
+                row1[i] = row2[i] = c.row;
             } else {
                 // constant/expression/nested function result -> always a numeric value
-                values.add(evaluate(a, sheet, visiting));
+                kinds[i] = FunctionCall.ARG_EXPR;
+                exprs[i] = compile(a);
             }
         }
 
-        return Functions.apply(name, values);
+        return new FunctionCall(name, fn, bind(name, fn, kinds, texts), kinds, col1, row1, col2, row2, exprs, texts);
     }
 
-    private static void addCellForFunction(
-            String funcName, String ref, List<Double> values,
-            Spreadsheet sheet, Set<String> visiting) {
-
-        Cell c = sheet.getCell(ref); // access type without evaluating first
-
-        // For PROMEDIO: ignore empty/text cells completely
-        if (funcName.equals("PROMEDIO")) {
-            if (c.getType() == CellType.EMPTY || c.getType() == CellType.TEXT) {
-                return; // skip
-            }
-            values.add(sheet.evaluateCellInternal(ref, visiting));
-            return;
+    static Object bind(String name, AggregateFunction fn, byte[] kinds, String[] texts) {
+        List<String> literals = new ArrayList<>();
+        for (int i = 0; i < kinds.length; i++) {
+            if (kinds[i] == FunctionCall.ARG_TEXT) literals.add(texts[i]);
         }
+        return fn.bind(name, literals);
+    }
 
-        // For SUMA: empty/text -> treat as 0
-        if (funcName.equals("SUMA")) {
-            if (c.getType() == CellType.EMPTY || c.getType() == CellType.TEXT) {
-                values.add(0.0);
-            } else {
-                values.add(sheet.evaluateCellInternal(ref, visiting));
-            }
-            return;
+    // Spaces inside "quoted" text arguments are part of the text
+    private static String stripSpaces(String expr) {
+        StringBuilder sb = new StringBuilder(expr.length());
+        boolean quoted = false;
+        for (int i = 0; i < expr.length(); i++) {
+            char c = expr.charAt(i);
+            if (c == '"') quoted = !quoted;
+            if (c != ' ' || quoted) sb.append(c);
         }
+        return sb.toString();
+    }
 
-
-        if (funcName.equals("MIN") || funcName.equals("MAX")) {
-            if (c.getType() == CellType.EMPTY || c.getType() == CellType.TEXT) {
-                return; // skip
-            }
-            values.add(sheet.evaluateCellInternal(ref, visiting));
-            return;
+    private static int findMatchingParen(String s, int openIdx) {
+        int depth = 1;
+        boolean quoted = false;
+        for (int k = openIdx + 1; k < s.length(); k++) {
+            char c = s.charAt(k);
+            if (c == '"') quoted = !quoted;
+            else if (quoted) continue;
+            else if (c == '(') depth++;
+            else if (c == ')') depth--;
+            if (depth == 0) return k;
         }
-
-        // fallback
-        values.add(sheet.evaluateCellInternal(ref, visiting));
+        throw new IllegalArgumentException("Missing ')' in expression");
     }
 
-    private static List<String> expandRangeRefs(String range) {
-        String[] p = range.split(":");
-        CellPos c1 = CellPos.parse(p[0]);
-        CellPos c2 = CellPos.parse(p[1]);
+    // A call several formulas contain is computed once and reused until a cell it reads changes
+    private static double evalFunction(FunctionCall call, Spreadsheet sheet, LongSet visiting) {
+        SharedCalls.Entry shared = (call.key != null) ? sheet.sharedCalls().get(call.key) : null;
+        if (shared == null) return evalCall(call, sheet, visiting);
 
-        int colStart = Math.min(c1.col, c2.col);
-        int colEnd   = Math.max(c1.col, c2.col);
-        int rowStart = Math.min(c1.row, c2.row);
-        int rowEnd   = Math.max(c1.row, c2.row);
+        if (shared.valid) {
+            RecalcMetrics m = RecalcMetrics.active;
+            if (m != null) m.sharedCallReused();
+            return shared.value;
+        }
+        double v = evalCall(call, sheet, visiting);
+        shared.set(v);
+        return v;
+    }
 
-        List<String> refs = new ArrayList<>();
-        for (int col = colStart; col <= colEnd; col++) {
-            for (int row = rowStart; row <= rowEnd; row++) {
-                refs.add(CellPos.toRef(col, row));
+    private static double evalCall(FunctionCall call, Spreadsheet sheet, LongSet visiting) {
+        Accumulator acc = call.fn.newAccumulator(call.binding);
+
+        for (int i = 0; i < call.argKinds.length; i++) {
+            switch (call.argKinds[i]) {
+                case FunctionCall.ARG_RANGE:
+                    if (acc.acceptsStats()) {
+                        RangeStats indexed = sheet.indexedStats(call.col1[i], call.row1[i], call.col2[i], call.row2[i]);
+                        if (indexed != null) {
+                            acc.addStats(indexed);
+                            RecalcMetrics m = RecalcMetrics.active;
+                            if (m != null) m.rangeIndexed();
+                            break;
+                        }
+                    }
+                    RecalcMetrics m = RecalcMetrics.active;
+                    if (m != null) {
+                        m.rangeScanned((long) (call.col2[i] - call.col1[i] + 1) * (call.row2[i] - call.row1[i] + 1));
+                    }
+                    if (acc.acceptsStats() && sheet.vectorRanges()) {
+                        RangeStats folded = new RangeStats();
+                        for (int col = call.col1[i]; col <= call.col2[i]; col++) {
+                            final int c = col;
+                            VectorRangeScan.fold((TiledCellStore) sheet.store(), col, call.row1[i], call.row2[i], folded,
+                                    row -> acc.add(sheet.evaluateCellInternal(CellPos.pack(c, row), visiting)));
+                        }
+                        acc.addStats(folded);
+                        break;
+                    }
+                    // empty cells are never fed to a function, so only
+                    // the cells the store actually holds are visited
+                    for (int col = call.col1[i]; col <= call.col2[i]; col++) {
+                        final int c = col;
+                        sheet.store().forEachInColumn(col, call.row1[i], call.row2[i], (row, type, number) ->
+                                addCell(acc, type, number, c, row, sheet, visiting));
+                    }
+                    break;
+                case FunctionCall.ARG_CELL: {
+                    int col = call.col1[i], row = call.row1[i];
+                    CellType type = sheet.typeAt(col, row);
+                    if (type == CellType.NUMBER || type == CellType.FORMULA) {
+                        acc.add(sheet.evaluateCellInternal(CellPos.pack(col, row), visiting));
+                    }
+                    break;
+                }
+                case FunctionCall.ARG_EXPR:
+                    acc.add(run(call.exprs[i], sheet, visiting));
+                    break;
+                default:
+                    break; // text literals were consumed by fn.bind at compile time
             }
         }
-        return refs;
+
+        return acc.result();
     }
 
-    private static double evaluateArgument(String a, Spreadsheet sheet, Set<String> visiting) {
-        // If argument is a plain cell reference, evaluate it directly:
-        if (isCellRef(a)) {
-            return sheet.evaluateCellInternal(a, visiting);
+    // Empty/text cells are skipped for every function (SUMA counting them as 0 is the same)
+    private static void addCell(Accumulator acc, CellType type, double number, int col, int row,
+                                Spreadsheet sheet, LongSet visiting) {
+        if (type == CellType.NUMBER) {
+            acc.add(number);
+        } else if (type == CellType.FORMULA) {
+            acc.add(sheet.evaluateCellInternal(CellPos.pack(col, row), visiting));
         }
-        // Otherwise treat it as a full expression:
-        return evaluate(a, sheet, visiting);
     }
 
     private static List<String> splitArgsTopLevel(String s) {
         List<String> res = new ArrayList<>();
         StringBuilder cur = new StringBuilder();
         int depth = 0;
+        boolean quoted = false;
 
         for (int i = 0; i < s.length(); i++) {
             char c = s.charAt(i);
-            if (c == '(') depth++;
+            if (c == '"') quoted = !quoted;
+            else if (quoted) {
+                cur.append(c);
+                continue;
+            } else if (c == '(') depth++;
             else if (c == ')') depth--;
 
             if (c == ';' && depth == 0) {
@@ -195,7 +282,7 @@ public class FormulaEvaluator {
     }
 
     // ==========================================================
-    // 2) Ranges and cell refs
+    // 3) Ranges and cell refs
     // ==========================================================
 
     private static boolean isCellRef(String s) {
@@ -216,31 +303,11 @@ public class FormulaEvaluator {
         return isCellRef(a) && isCellRef(b);
     }
 
-    private static List<Double> expandRangeValues(String range, Spreadsheet sheet, Set<String> visiting) {
-        String[] p = range.split(":");
-        CellPos c1 = CellPos.parse(p[0]);
-        CellPos c2 = CellPos.parse(p[1]);
-
-        int colStart = Math.min(c1.col, c2.col);
-        int colEnd   = Math.max(c1.col, c2.col);
-        int rowStart = Math.min(c1.row, c2.row);
-        int rowEnd   = Math.max(c1.row, c2.row);
-
-        List<Double> vals = new ArrayList<>();
-        for (int col = colStart; col <= colEnd; col++) {
-            for (int row = rowStart; row <= rowEnd; row++) {
-                String ref = CellPos.toRef(col, row);
-                vals.add(sheet.evaluateCellInternal(ref, visiting));
-            }
-        }
-        return vals;
-    }
-
     // ==========================================================
-    // 3) Arithmetic tokenization
+    // 4) Tokenization (function calls become single FUNCTION tokens)
     // ==========================================================
 
-    private static List<Token> tokenizeArithmetic(String expr) {
+    private static List<Token> tokenize(String expr) {
         List<Token> tokens = new ArrayList<>();
         int i = 0;
         Token prev = null;
@@ -258,10 +325,22 @@ public class FormulaEvaluator {
                 continue;
             }
 
-            // cell ref: letters + digits
+            // function call or cell ref: letters (+ '(' or digits)
             if (Character.isLetter(c)) {
                 int j = i;
                 while (j < expr.length() && Character.isLetter(expr.charAt(j))) j++;
+                String word = expr.substring(i, j);
+
+                // function if word is a registered function and next char is '('
+                AggregateFunction fn = Functions.get(word);
+                if (fn != null && j < expr.length() && expr.charAt(j) == '(') {
+                    int close = findMatchingParen(expr, j);
+                    tokens.add(new Token(compileCall(word, fn, expr.substring(j + 1, close))));
+                    prev = tokens.get(tokens.size() - 1);
+                    i = close + 1;
+                    continue;
+                }
+
                 int k = j;
                 while (k < expr.length() && Character.isDigit(expr.charAt(k))) k++;
 
@@ -311,45 +390,43 @@ public class FormulaEvaluator {
         return tokens;
     }
 
-    private static double evalRPN(List<Token> rpn, Spreadsheet sheet, Set<String> visiting) {
-        Deque<Double> st = new ArrayDeque<>();
+    // ==========================================================
+    // 5) Running a compiled program
+    // ==========================================================
+
+    static double run(CompiledFormula f, Spreadsheet sheet, LongSet visiting) {
+        double[] st = new double[f.maxStack];
+        int sp = 0;
 
-        for (Token t : rpn) {
-            switch (t.type) {
-                case NUMBER:
-                    st.push(Double.parseDouble(t.text));
+        for (int pc = 0; pc < f.ops.length; pc++) {
+            int x = f.operands[pc];
+            switch (f.ops[pc]) {
+                case CompiledFormula.PUSH_CONST:
+                    st[sp++] = f.constants[x];
                     break;
-                case CELL:
-                    st.push(sheet.evaluateCellInternal(t.text, visiting));
+                case CompiledFormula.PUSH_CELL:
+                    st[sp++] = sheet.evaluateCellInternal(CellPos.pack(f.cellCols[x], f.cellRows[x]), visiting);
                     break;
-                case OPERATOR:
-                    if (st.size() < 2) throw new IllegalArgumentException("Syntax error");
-                    double b = st.pop();
-                    double a = st.pop();
-                    st.push(apply(a, b, t.text));
+                case CompiledFormula.CALL:
+                    st[sp++] = evalFunction(f.calls[x], sheet, visiting);
                     break;
                 default:
-                    throw new IllegalArgumentException("Unexpected token in RPN: " + t.type);
+                    double b = st[--sp];
+                    st[sp - 1] = apply(st[sp - 1], b, f.ops[pc]);
+                    break;
             }
         }
 
-        if (st.size() != 1) throw new IllegalArgumentException("Bad expression");
-        return st.pop();
+        return st[0];
     }
 
-    private static double apply(double a, double b, String op) {
+    private static double apply(double a, double b, byte op) {
         switch (op) {
-            case "+": return a + b;
-            case "-": return a - b;
-            case "*": return a * b;
-            case "/": return a / b;
+            case CompiledFormula.ADD: return a + b;
+            case CompiledFormula.SUB: return a - b;
+            case CompiledFormula.MUL: return a * b;
+            case CompiledFormula.DIV: return a / b;
             default: throw new IllegalArgumentException("Unknown operator: " + op);
         }
     }
-
-    private static String toCompactNumber(double v) {
-        long L = (long) v;
-        if (Math.abs(v - L) < 1e-12) return Long.toString(L);
-        return Double.toString(v);
-    }
 }
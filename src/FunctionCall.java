@@ -0,0 +1,93 @@
+/**
+ * A compiled call such as SUMA(A1:B3;C1;2*D4). Each argument is either a
+ * range, a single cell (both skip empty/text cells), a nested expression that
+ * always yields a value, or a quoted text literal consumed at compile time by
+ * {@link AggregateFunction#bind}.
+ */
+public final class FunctionCall {
+    static final byte ARG_RANGE = 0;
+    static final byte ARG_CELL  = 1;
+    static final byte ARG_EXPR  = 2;
+    static final byte ARG_TEXT  = 3;
+
+    final String name;
+    final AggregateFunction fn;
+    final Object binding; // fn.bind(...) result for the text arguments
+    final byte[] argKinds;
+    // for ARG_RANGE: normalized corners; for ARG_CELL: col1/row1 only
+    final int[] col1, row1, col2, row2;
+    final CompiledFormula[] exprs; // for ARG_EXPR
+    final String[] texts;          // for ARG_TEXT, without the quotes
+    // canonical text of a call that reads a range (directly or in a nested call), under
+    // which identical calls in different formulas share one result; null otherwise
+    final String key;
+
+    FunctionCall(String name, AggregateFunction fn, Object binding, byte[] argKinds,
+                 int[] col1, int[] row1, int[] col2, int[] row2, CompiledFormula[] exprs, String[] texts) {
+        this.name = name;
+        this.fn = fn;
+        this.binding = binding;
+        this.argKinds = argKinds;
+        this.col1 = col1;
+        this.row1 = row1;
+        this.col2 = col2;
+        this.row2 = row2;
+        this.exprs = exprs;
+        this.texts = texts;
+        this.key = readsRange() ? canonical() : null;
+    }
+
+    /** Same as {@link CompiledFormula#visitPrecedents}, for this call alone. */
+    void visitPrecedents(CompiledFormula.PrecedentVisitor v) {
+        for (int i = 0; i < argKinds.length; i++) {
+            switch (argKinds[i]) {
+                case ARG_RANGE:
+                    v.range(col1[i], row1[i], col2[i], row2[i]);
+                    break;
+                case ARG_CELL:
+                    v.cell(col1[i], row1[i]);
+                    break;
+                case ARG_EXPR:
+                    exprs[i].visitPrecedents(v);
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    private boolean readsRange() {
+        for (int i = 0; i < argKinds.length; i++) {
+            if (argKinds[i] == ARG_RANGE) return true;
+            if (argKinds[i] == ARG_EXPR) {
+                for (FunctionCall c : exprs[i].calls) {
+                    if (c.key != null) return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    // NAME(A1:B5;C1;<rpn of expr>;"text"), whatever the spacing or corner order was
+    String canonical() {
+        StringBuilder sb = new StringBuilder(name).append('(');
+        for (int i = 0; i < argKinds.length; i++) {
+            if (i > 0) sb.append(';');
+            switch (argKinds[i]) {
+                case ARG_RANGE:
+                    sb.append(CellPos.toRef(col1[i], row1[i])).append(':').append(CellPos.toRef(col2[i], row2[i]));
+                    break;
+                case ARG_CELL:
+                    sb.append(CellPos.toRef(col1[i], row1[i]));
+                    break;
+                case ARG_EXPR:
+                    sb.append(exprs[i].canonical());
+                    break;
+                default:
+                    sb.append('"').append(texts[i]).append('"');
+                    break;
+            }
+        }
+        return sb.append(')').toString();
+    }
+}
@@ -1,43 +1,156 @@
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.DoublePredicate;
 
+/** Registry of the functions formulas can call. */
 public class Functions {
 
+    private static final Map<String, AggregateFunction> REGISTRY = new ConcurrentHashMap<>();
+
+    static {
+        register("SUMA", b -> new Sum());
+        register("MIN", b -> new Min());
+        register("MAX", b -> new Max());
+        register("PROMEDIO", b -> new Average());
+        register("COUNT", b -> new Count());
+        register("PRODUCT", b -> new Product());
+        register("SUMIF", new SumIf());
+    }
+
+    /** Adds or replaces a function. Formulas compiled before keep the old one. */
+    public static void register(String name, AggregateFunction fn) {
+        REGISTRY.put(name, fn);
+    }
+
+    /** The function registered under name, or null. */
+    public static AggregateFunction get(String name) {
+        return REGISTRY.get(name);
+    }
+
     public static double apply(String name, List<Double> values) {
+        AggregateFunction fn = get(name);
+        if (fn == null) throw new IllegalArgumentException("Unknown function: " + name);
 
-        // handle empty argument list safely
-        if (values == null || values.isEmpty()) {
-            switch (name) {
-                case "SUMA":      return 0.0;
-                case "PROMEDIO":  return 0.0;
-                case "MIN":       throw new IllegalArgumentException("MIN needs at least one numeric argument");
-                case "MAX":       throw new IllegalArgumentException("MAX needs at least one numeric argument");
-                default:          throw new IllegalArgumentException("Unknown function: " + name);
-            }
+        Accumulator acc = fn.newAccumulator(fn.bind(name, Collections.emptyList()));
+        if (values != null) {
+            for (double v : values) acc.add(v);
         }
+        return acc.result();
+    }
 
-        switch (name) {
-            case "SUMA": {
-                double sum = 0;
-                for (double v : values) sum += v;
-                return sum;
-            }
-            case "MIN": {
-                double m = values.get(0);
-                for (double v : values) m = Math.min(m, v);
-                return m;
+    // ==========================================================
+    // Built-in accumulators
+    // ==========================================================
+
+    private static final class Sum implements Accumulator {
+        private double sum;
+
+        public void add(double v) { sum += v; }
+        public boolean acceptsStats() { return true; }
+        public void addStats(RangeStats s) { sum += s.getSum(); }
+        public double result() { return sum; }
+    }
+
+    private static final class Min implements Accumulator {
+        private double min = Double.POSITIVE_INFINITY;
+        private int count;
+
+        public void add(double v) { min = Math.min(min, v); count++; }
+        public boolean acceptsStats() { return true; }
+        public void addStats(RangeStats s) { min = Math.min(min, s.getMin()); count += s.getCount(); }
+
+        public double result() {
+            if (count == 0) throw new IllegalArgumentException("MIN needs at least one numeric argument");
+            return min;
+        }
+    }
+
+    private static final class Max implements Accumulator {
+        private double max = Double.NEGATIVE_INFINITY;
+        private int count;
+
+        public void add(double v) { max = Math.max(max, v); count++; }
+        public boolean acceptsStats() { return true; }
+        public void addStats(RangeStats s) { max = Math.max(max, s.getMax()); count += s.getCount(); }
+
+        public double result() {
+            if (count == 0) throw new IllegalArgumentException("MAX needs at least one numeric argument");
+            return max;
+        }
+    }
+
+    private static final class Average implements Accumulator {
+        private double sum;
+        private int count;
+
+        public void add(double v) { sum += v; count++; }
+        public boolean acceptsStats() { return true; }
+        public void addStats(RangeStats s) { sum += s.getSum(); count += s.getCount(); }
+        public double result() { return (count == 0) ? 0.0 : sum / count; }
+    }
+
+    private static final class Count implements Accumulator {
+        private int count;
+
+        public void add(double v) { count++; }
+        public boolean acceptsStats() { return true; }
+        public void addStats(RangeStats s) { count += s.getCount(); }
+        public double result() { return count; }
+    }
+
+    private static final class Product implements Accumulator {
+        private double product = 1.0;
+        private int count;
+
+        public void add(double v) { product *= v; count++; }
+        public double result() { return (count == 0) ? 0.0 : product; }
+    }
+
+    // SUMIF(values...;"criterion"): sums the values matching e.g. ">5", "<=0", "<>3" or "7"
+    private static final class SumIf implements AggregateFunction {
+
+        @Override
+        public Object bind(String name, List<String> textArgs) {
+            if (textArgs.size() != 1) throw new IllegalArgumentException(name + " needs exactly one quoted criterion");
+            return criterion(textArgs.get(0));
+        }
+
+        @Override
+        public Accumulator newAccumulator(Object binding) {
+            DoublePredicate test = (DoublePredicate) binding;
+            return new Accumulator() {
+                private double sum;
+
+                public void add(double v) { if (test.test(v)) sum += v; }
+                public double result() { return sum; }
+            };
+        }
+
+        private static DoublePredicate criterion(String c) {
+            String op = "=";
+            for (String o : new String[]{">=", "<=", "<>", ">", "<", "="}) {
+                if (c.startsWith(o)) {
+                    op = o;
+                    c = c.substring(o.length());
+                    break;
+                }
             }
-            case "MAX": {
-                double m = values.get(0);
-                for (double v : values) m = Math.max(m, v);
-                return m;
+
+            double x;
+            try {
+                x = Double.parseDouble(c);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Bad SUMIF criterion: " + c);
             }
-            case "PROMEDIO": {
-                double sum = 0;
-                for (double v : values) sum += v;
-                return sum / values.size();
+
+            switch (op) {
+                case ">=": return v -> v >= x;
+                case "<=": return v -> v <= x;
+                case "<>": return v -> v != x;
+                case ">":  return v -> v > x;
+                case "<":  return v -> v < x;
+                default:   return v -> v == x;
             }
-            default:
-                throw new IllegalArgumentException("Unknown function: " + name);
         }
     }
 }
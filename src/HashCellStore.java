@@ -0,0 +1,64 @@
+/** Default backend: one {@link Cell} object per non-empty cell in a {@link LongMap}. */
+public class HashCellStore implements CellStore {
+
+    private final LongMap<Cell> cells = new LongMap<>();
+
+    @Override
+    public Cell cell(long key) {
+        return cells.get(key);
+    }
+
+    @Override
+    public CellType type(long key) {
+        Cell c = cells.get(key);
+        return (c == null) ? CellType.EMPTY : c.getType();
+    }
+
+    @Override
+    public double number(long key) {
+        Cell c = cells.get(key);
+        return (c != null && c.getType() == CellType.NUMBER) ? c.getCachedNumber() : 0.0;
+    }
+
+    @Override
+    public String raw(long key) {
+        Cell c = cells.get(key);
+        return (c == null) ? "" : c.getRaw();
+    }
+
+    @Override
+    public void put(long key, Cell cell) {
+        if (cell.getType() == CellType.EMPTY) cells.remove(key);
+        else cells.put(key, cell);
+    }
+
+    @Override
+    public void putNumber(long key, double value) {
+        Cell c = new Cell();
+        c.setNumber(value);
+        cells.put(key, c);
+    }
+
+    @Override
+    public void forEachInColumn(int col, int row1, int row2, ColumnVisitor v) {
+        for (int row = row1; row <= row2; row++) {
+            Cell c = cells.get(CellPos.pack(col, row));
+            if (c != null) v.accept(row, c.getType(), c.getCachedNumber());
+        }
+    }
+
+    @Override
+    public void forEachCell(LongMap.Visitor<Cell> v) {
+        cells.forEach(v);
+    }
+
+    @Override
+    public long[] keys() {
+        return cells.keys();
+    }
+
+    @Override
+    public int size() {
+        return cells.size();
+    }
+}
@@ -0,0 +1,137 @@
+/**
+ * Open-addressing hash map from primitive long keys (packed cell positions) to values.
+ * Linear probing, backward-shift deletion, no boxing and no per-entry objects.
+ * Null values are not allowed: an empty slot is marked by a null value.
+ */
+public final class LongMap<V> {
+
+    public interface Visitor<V> {
+        void accept(long key, V value);
+    }
+
+    private long[] keys;
+    private Object[] vals;
+    private int size;
+    private int mask;
+    private int shift;
+
+    public LongMap() {
+        this(16);
+    }
+
+    public LongMap(int expected) {
+        int cap = 8;
+        while (cap * 3 / 4 < expected) cap <<= 1;
+        alloc(cap);
+    }
+
+    private void alloc(int cap) {
+        keys = new long[cap];
+        vals = new Object[cap];
+        mask = cap - 1;
+        shift = 64 - Integer.numberOfTrailingZeros(cap);
+    }
+
+    private int slot(long key) {
+        return (int) ((key * 0x9E3779B97F4A7C15L) >>> shift); // Fibonacci hashing
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(long key) {
+        for (int i = slot(key); vals[i] != null; i = (i + 1) & mask) {
+            if (keys[i] == key) return (V) vals[i];
+        }
+        return null;
+    }
+
+    public boolean containsKey(long key) {
+        return get(key) != null;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V put(long key, V value) {
+        if (value == null) throw new IllegalArgumentException("Null value");
+
+        int i = slot(key);
+        for (; vals[i] != null; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                V old = (V) vals[i];
+                vals[i] = value;
+                return old;
+            }
+        }
+        keys[i] = key;
+        vals[i] = value;
+        if (++size > (mask + 1) * 3 / 4) grow();
+        return null;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V remove(long key) {
+        int i = slot(key);
+        for (; vals[i] != null; i = (i + 1) & mask) {
+            if (keys[i] == key) break;
+        }
+        if (vals[i] == null) return null;
+
+        V old = (V) vals[i];
+        size--;
+
+        // backward-shift the rest of the probe run so no tombstones are needed
+        int gap = i;
+        for (int j = (gap + 1) & mask; vals[j] != null; j = (j + 1) & mask) {
+            int home = slot(keys[j]);
+            if (((j - home) & mask) >= ((j - gap) & mask)) {
+                keys[gap] = keys[j];
+                vals[gap] = vals[j];
+                gap = j;
+            }
+        }
+        vals[gap] = null;
+        return old;
+    }
+
+    public void clear() {
+        java.util.Arrays.fill(vals, null);
+        size = 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    public void forEach(Visitor<V> v) {
+        long[] k = keys;
+        Object[] o = vals;
+        for (int i = 0; i < o.length; i++) {
+            if (o[i] != null) v.accept(k[i], (V) o[i]);
+        }
+    }
+
+    public long[] keys() {
+        long[] out = new long[size];
+        int n = 0;
+        for (int i = 0; i < vals.length; i++) {
+            if (vals[i] != null) out[n++] = keys[i];
+        }
+        return out;
+    }
+
+    private void grow() {
+        long[] oldKeys = keys;
+        Object[] oldVals = vals;
+        alloc(oldVals.length << 1);
+        for (int i = 0; i < oldVals.length; i++) {
+            if (oldVals[i] == null) continue;
+            int j = slot(oldKeys[i]);
+            while (vals[j] != null) j = (j + 1) & mask;
+            keys[j] = oldKeys[i];
+            vals[j] = oldVals[i];
+        }
+    }
+}
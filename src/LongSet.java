@@ -0,0 +1,102 @@
+/**
+ * Open-addressing set of primitive long keys (packed cell positions).
+ * Same layout as {@link LongMap}, with a used-flag array instead of values.
+ */
+public final class LongSet {
+
+    private long[] keys;
+    private boolean[] used;
+    private int size;
+    private int mask;
+    private int shift;
+
+    public LongSet() {
+        this(8);
+    }
+
+    public LongSet(int expected) {
+        int cap = 4;
+        while (cap * 3 / 4 < expected) cap <<= 1;
+        alloc(cap);
+    }
+
+    private void alloc(int cap) {
+        keys = new long[cap];
+        used = new boolean[cap];
+        mask = cap - 1;
+        shift = 64 - Integer.numberOfTrailingZeros(cap);
+    }
+
+    private int slot(long key) {
+        return (int) ((key * 0x9E3779B97F4A7C15L) >>> shift);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public boolean contains(long key) {
+        for (int i = slot(key); used[i]; i = (i + 1) & mask) {
+            if (keys[i] == key) return true;
+        }
+        return false;
+    }
+
+    /** @return false if the key was already present */
+    public boolean add(long key) {
+        int i = slot(key);
+        for (; used[i]; i = (i + 1) & mask) {
+            if (keys[i] == key) return false;
+        }
+        keys[i] = key;
+        used[i] = true;
+        if (++size > (mask + 1) * 3 / 4) grow();
+        return true;
+    }
+
+    public boolean remove(long key) {
+        int i = slot(key);
+        for (; used[i]; i = (i + 1) & mask) {
+            if (keys[i] == key) break;
+        }
+        if (!used[i]) return false;
+        size--;
+
+        int gap = i;
+        for (int j = (gap + 1) & mask; used[j]; j = (j + 1) & mask) {
+            int home = slot(keys[j]);
+            if (((j - home) & mask) >= ((j - gap) & mask)) {
+                keys[gap] = keys[j];
+                gap = j;
+            }
+        }
+        used[gap] = false;
+        return true;
+    }
+
+    public long[] toArray() {
+        long[] out = new long[size];
+        int n = 0;
+        for (int i = 0; i < used.length; i++) {
+            if (used[i]) out[n++] = keys[i];
+        }
+        return out;
+    }
+
+    private void grow() {
+        long[] oldKeys = keys;
+        boolean[] oldUsed = used;
+        alloc(oldUsed.length << 1);
+        for (int i = 0; i < oldUsed.length; i++) {
+            if (!oldUsed[i]) continue;
+            int j = slot(oldKeys[i]);
+            while (used[j]) j = (j + 1) & mask;
+            keys[j] = oldKeys[i];
+            used[j] = true;
+        }
+    }
+}
@@ -1,8 +1,22 @@
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Scanner;
 
 public class Main {
 
-    public static void main(String[] args) {
+    private static final int DEFAULT_PORT = 7070;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && args[0].equals("--server")) {
+            runServer(args);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("--batch")) {
+            System.exit(runBatch(args) ? 0 : 1);
+        }
+
         Spreadsheet sheet = new Spreadsheet();
         Scanner sc = new Scanner(System.in);
 
@@ -79,4 +93,59 @@ public class Main {
 
         sc.close();
     }
+
+    // --server [port] [file.s2v] [--data dir]: headless mode, see SheetServer for the
+    // protocol; LOAD/SAVE are only allowed inside the --data directory
+    private static void runServer(String[] args) throws Exception {
+        Path data = null;
+        List<String> positional = new ArrayList<>();
+        for (int i = 1; i < args.length; i++) {
+            if (args[i].equals("--data")) data = Paths.get(args[++i]);
+            else positional.add(args[i]);
+        }
+        int port = (positional.size() > 0) ? Integer.parseInt(positional.get(0)) : DEFAULT_PORT;
+        ConcurrentSpreadsheet sheet = new ConcurrentSpreadsheet();
+        if (positional.size() > 1) sheet.load(positional.get(1));
+
+        SheetServer server = new SheetServer(sheet, port, data);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                server.close();
+            } catch (Exception e) {
+                // exiting anyway
+            }
+        }));
+        server.start();
+        System.out.println("Spreadsheet server listening on 127.0.0.1:" + server.port());
+        server.join();
+    }
+
+    // --batch <dir|glob> [--resave] [--out dir] [--threads n]: recalculates every file;
+    // exits with 1 if any of them failed
+    private static boolean runBatch(String[] args) throws Exception {
+        if (args.length < 2) throw new IllegalArgumentException("Usage: --batch <dir|glob> [--resave] [--out dir] [--threads n]");
+
+        BatchRecalc.Mode mode = BatchRecalc.Mode.VALUES;
+        Path out = null;
+        int threads = Runtime.getRuntime().availableProcessors();
+        for (int i = 2; i < args.length; i++) {
+            switch (args[i]) {
+                case "--resave":
+                    mode = BatchRecalc.Mode.RESAVE;
+                    break;
+                case "--out":
+                    out = Paths.get(args[++i]);
+                    break;
+                case "--threads":
+                    threads = Integer.parseInt(args[++i]);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+
+        List<Path> files = BatchRecalc.resolve(args[1]);
+        BatchRecalc.Summary summary = BatchRecalc.run(files, mode, out, threads, System.out);
+        return summary.failed() == 0;
+    }
 }
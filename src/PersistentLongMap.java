@@ -0,0 +1,214 @@
+/**
+ * Immutable map from long keys to values: a hash array mapped trie. put and remove
+ * return a new map that shares every untouched node with the old one, so keeping
+ * old versions costs only the O(log n) nodes each change copies.
+ *
+ * Keys are spread with a bijective multiply, so two keys never share a full hash and
+ * no collision nodes are needed. All fields are final: a map can be handed to other
+ * threads without further synchronization.
+ */
+public final class PersistentLongMap<V> {
+
+    private static final int BITS = 5;
+    private static final int MASK = (1 << BITS) - 1;
+
+    private static final PersistentLongMap<?> EMPTY = new PersistentLongMap<>(null, 0);
+
+    private static final class Leaf {
+        final long key;
+        final Object value;
+
+        Leaf(long key, Object value) {
+            this.key = key;
+            this.value = value;
+        }
+    }
+
+    // slots hold a Leaf or a Node, one per set bit of bitmap, in bit order
+    private static final class Node {
+        final int bitmap;
+        final Object[] slots;
+
+        Node(int bitmap, Object[] slots) {
+            this.bitmap = bitmap;
+            this.slots = slots;
+        }
+    }
+
+    private final Node root;
+    private final int size;
+
+    private PersistentLongMap(Node root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <V> PersistentLongMap<V> empty() {
+        return (PersistentLongMap<V>) EMPTY;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    private static long hash(long key) {
+        return key * 0x9E3779B97F4A7C15L;
+    }
+
+    private static int index(long h, int shift) {
+        return (int) (h >>> shift) & MASK;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(long key) {
+        long h = hash(key);
+        Node n = root;
+        for (int shift = 0; n != null; shift += BITS) {
+            int bit = 1 << index(h, shift);
+            if ((n.bitmap & bit) == 0) return null;
+
+            Object o = n.slots[Integer.bitCount(n.bitmap & (bit - 1))];
+            if (o instanceof Leaf) {
+                Leaf l = (Leaf) o;
+                return (l.key == key) ? (V) l.value : null;
+            }
+            n = (Node) o;
+        }
+        return null;
+    }
+
+    public boolean containsKey(long key) {
+        return get(key) != null;
+    }
+
+    /** Null values are not allowed; use {@link #remove}. */
+    public PersistentLongMap<V> put(long key, V value) {
+        if (value == null) throw new IllegalArgumentException("Null value");
+
+        boolean[] added = new boolean[1];
+        Node r = put(root, 0, hash(key), key, value, added);
+        if (r == root) return this;
+        return new PersistentLongMap<>(r, added[0] ? size + 1 : size);
+    }
+
+    private static Node put(Node n, int shift, long h, long key, Object value, boolean[] added) {
+        int bit = 1 << index(h, shift);
+        if (n == null) {
+            added[0] = true;
+            return new Node(bit, new Object[]{new Leaf(key, value)});
+        }
+
+        int idx = Integer.bitCount(n.bitmap & (bit - 1));
+        if ((n.bitmap & bit) == 0) {
+            added[0] = true;
+            Object[] slots = new Object[n.slots.length + 1];
+            System.arraycopy(n.slots, 0, slots, 0, idx);
+            slots[idx] = new Leaf(key, value);
+            System.arraycopy(n.slots, idx, slots, idx + 1, n.slots.length - idx);
+            return new Node(n.bitmap | bit, slots);
+        }
+
+        Object o = n.slots[idx];
+        Object replacement;
+        if (o instanceof Leaf) {
+            Leaf l = (Leaf) o;
+            if (l.key == key) {
+                if (l.value == value) return n;
+                replacement = new Leaf(key, value);
+            } else {
+                added[0] = true;
+                replacement = split(shift + BITS, l, hash(l.key), new Leaf(key, value), h);
+            }
+        } else {
+            replacement = put((Node) o, shift + BITS, h, key, value, added);
+            if (replacement == o) return n;
+        }
+
+        Object[] slots = n.slots.clone();
+        slots[idx] = replacement;
+        return new Node(n.bitmap, slots);
+    }
+
+    // Two leaves whose hashes agree below shift; they must differ somewhere above it
+    private static Node split(int shift, Leaf a, long ha, Leaf b, long hb) {
+        int ia = index(ha, shift), ib = index(hb, shift);
+        if (ia == ib) {
+            return new Node(1 << ia, new Object[]{split(shift + BITS, a, ha, b, hb)});
+        }
+        Object[] slots = (ia < ib) ? new Object[]{a, b} : new Object[]{b, a};
+        return new Node((1 << ia) | (1 << ib), slots);
+    }
+
+    public PersistentLongMap<V> remove(long key) {
+        if (root == null) return this;
+
+        Object r = remove(root, 0, hash(key), key);
+        if (r == root) return this;
+        if (r == null) return empty();
+        if (r instanceof Leaf) {
+            Leaf l = (Leaf) r;
+            r = new Node(1 << index(hash(l.key), 0), new Object[]{l});
+        }
+        return new PersistentLongMap<>((Node) r, size - 1);
+    }
+
+    // Returns n if key is absent, null if n became empty, a Leaf if only one leaf
+    // is left (the parent inlines it), otherwise the new node
+    private static Object remove(Node n, int shift, long h, long key) {
+        int bit = 1 << index(h, shift);
+        if ((n.bitmap & bit) == 0) return n;
+
+        int idx = Integer.bitCount(n.bitmap & (bit - 1));
+        Object o = n.slots[idx];
+        Object r;
+        if (o instanceof Leaf) {
+            if (((Leaf) o).key != key) return n;
+            r = null;
+        } else {
+            r = remove((Node) o, shift + BITS, h, key);
+            if (r == o) return n;
+        }
+
+        if (r == null) {
+            if (n.slots.length == 1) return null;
+            Object[] slots = new Object[n.slots.length - 1];
+            System.arraycopy(n.slots, 0, slots, 0, idx);
+            System.arraycopy(n.slots, idx + 1, slots, idx, slots.length - idx);
+            if (slots.length == 1 && slots[0] instanceof Leaf) return slots[0];
+            return new Node(n.bitmap & ~bit, slots);
+        }
+
+        if (r instanceof Leaf && n.slots.length == 1) return r;
+        Object[] slots = n.slots.clone();
+        slots[idx] = r;
+        return new Node(n.bitmap, slots);
+    }
+
+    @SuppressWarnings("unchecked")
+    public void forEach(LongMap.Visitor<V> v) {
+        if (root != null) forEach(root, (LongMap.Visitor<Object>) v);
+    }
+
+    private static void forEach(Node n, LongMap.Visitor<Object> v) {
+        for (Object o : n.slots) {
+            if (o instanceof Leaf) {
+                Leaf l = (Leaf) o;
+                v.accept(l.key, l.value);
+            } else {
+                forEach((Node) o, v);
+            }
+        }
+    }
+
+    public long[] keys() {
+        long[] out = new long[size];
+        int[] n = {0};
+        forEach((k, value) -> out[n[0]++] = k);
+        return out;
+    }
+}
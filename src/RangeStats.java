@@ -0,0 +1,33 @@
+/**
+ * Sum/count/min/max of the numbers in a range, as answered by {@link AggregateIndex}.
+ * Enough for SUMA, PROMEDIO, MIN, MAX and COUNT to fold a whole range in at once.
+ */
+public final class RangeStats {
+    double sum = 0.0;
+    int count = 0;
+    double min = Double.POSITIVE_INFINITY;
+    double max = Double.NEGATIVE_INFINITY;
+
+    public void merge(RangeStats o) {
+        sum += o.sum;
+        count += o.count;
+        if (o.min < min) min = o.min;
+        if (o.max > max) max = o.max;
+    }
+
+    public double getSum() {
+        return sum;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public double getMin() {
+        return min;
+    }
+
+    public double getMax() {
+        return max;
+    }
+}
@@ -0,0 +1,18 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/** One recalculation pass: after setCell, after setCells or recomputeAll. */
+@Name("spreadsheet.Recalc")
+@Label("Recalculation")
+@Category("Spreadsheet")
+@Description("Cells re-evaluated after an edit, a batch or a full recompute")
+public class RecalcEvent extends jdk.jfr.Event {
+
+    @Label("Kind")
+    String kind;
+
+    @Label("Cells")
+    int cells;
+}
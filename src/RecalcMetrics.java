@@ -0,0 +1,313 @@
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Process-wide counters and histograms for formula compilation, evaluation,
+ * recalculation, cycle checks and S2V I/O. Off until {@link #enable()}; while off the
+ * hot paths pay one volatile read. All recording is thread-safe and lock-free, so it
+ * also works under parallel recalculation.
+ *
+ * Evaluation times are inclusive: a formula that has to evaluate a stale precedent
+ * first is charged for it too. In ordered recalculation precedents are already
+ * valid, so this is close to the formula's own cost. Per-formula costs live on the
+ * formula's {@link Cell}, so they belong to one sheet and go away with the cell.
+ */
+public final class RecalcMetrics {
+
+    static volatile RecalcMetrics active; // null = metrics off
+
+    private final LongAdder compilations = new LongAdder();
+    private final LongAdder compileNanos = new LongAdder();
+    private final LongAdder evaluations = new LongAdder();
+    private final LongAdder rangeCellsScanned = new LongAdder();
+    private final LongAdder indexedRangeQueries = new LongAdder();
+    private final LongAdder sharedCallHits = new LongAdder();
+    private final LongAdder cycleChecks = new LongAdder();
+    private final LongAdder cycleCheckNanos = new LongAdder();
+    private final LongAdder loads = new LongAdder();
+    private final LongAdder cellsLoaded = new LongAdder();
+    private final LongAdder loadNanos = new LongAdder();
+    private final LongAdder saves = new LongAdder();
+    private final LongAdder cellsSaved = new LongAdder();
+    private final LongAdder saveNanos = new LongAdder();
+
+    private final Histogram evaluationNanos = new Histogram();
+    private final Histogram recalcNanos = new Histogram();
+    private final Histogram cellsPerRecalc = new Histogram();
+
+    private RecalcMetrics() {
+    }
+
+    /** Turns metrics on (keeping what was recorded so far) and returns them. */
+    public static synchronized RecalcMetrics enable() {
+        if (active == null) active = new RecalcMetrics();
+        return active;
+    }
+
+    /** Turns metrics off; the returned instance keeps its final numbers. */
+    public static synchronized RecalcMetrics disable() {
+        RecalcMetrics m = active;
+        active = null;
+        return m;
+    }
+
+    /** The live metrics, or null while they are off. */
+    public static RecalcMetrics current() {
+        return active;
+    }
+
+    // ==========================================================
+    // Recording (package-private, called from the hot paths)
+    // ==========================================================
+
+    void compiled(long nanos) {
+        compilations.increment();
+        compileNanos.add(nanos);
+    }
+
+    void evaluated(long key, Cell cell, long nanos) {
+        evaluations.increment();
+        evaluationNanos.record(nanos);
+
+        FormulaCost c = cell.cost;
+        if (c == null || c.owner != this) cell.cost = c = new FormulaCost(this, key);
+        c.count.increment();
+        c.nanos.add(nanos);
+    }
+
+    void rangeScanned(long cells) {
+        rangeCellsScanned.add(cells);
+    }
+
+    void rangeIndexed() {
+        indexedRangeQueries.increment();
+    }
+
+    void sharedCallReused() {
+        sharedCallHits.increment();
+    }
+
+    void cycleChecked(long nanos) {
+        cycleChecks.increment();
+        cycleCheckNanos.add(nanos);
+    }
+
+    void recalculated(int cells, long nanos) {
+        cellsPerRecalc.record(cells);
+        recalcNanos.record(nanos);
+    }
+
+    void loaded(int cells, long nanos) {
+        loads.increment();
+        cellsLoaded.add(cells);
+        loadNanos.add(nanos);
+    }
+
+    void saved(int cells, long nanos) {
+        saves.increment();
+        cellsSaved.add(cells);
+        saveNanos.add(nanos);
+    }
+
+    // ==========================================================
+    // Reading
+    // ==========================================================
+
+    public long compilations() {
+        return compilations.sum();
+    }
+
+    public long compileNanos() {
+        return compileNanos.sum();
+    }
+
+    public long evaluations() {
+        return evaluations.sum();
+    }
+
+    /** Cells covered by ranges that were scanned rather than answered by the aggregate index. */
+    public long rangeCellsScanned() {
+        return rangeCellsScanned.sum();
+    }
+
+    public long indexedRangeQueries() {
+        return indexedRangeQueries.sum();
+    }
+
+    /** Function calls answered from a result another formula already computed. */
+    public long sharedCallHits() {
+        return sharedCallHits.sum();
+    }
+
+    public long cycleChecks() {
+        return cycleChecks.sum();
+    }
+
+    public long cycleCheckNanos() {
+        return cycleCheckNanos.sum();
+    }
+
+    public long loads() {
+        return loads.sum();
+    }
+
+    public long cellsLoaded() {
+        return cellsLoaded.sum();
+    }
+
+    public long loadNanos() {
+        return loadNanos.sum();
+    }
+
+    public long saves() {
+        return saves.sum();
+    }
+
+    public long cellsSaved() {
+        return cellsSaved.sum();
+    }
+
+    public long saveNanos() {
+        return saveNanos.sum();
+    }
+
+    /** Time of each formula evaluation. */
+    public Histogram evaluationNanos() {
+        return evaluationNanos;
+    }
+
+    /** Wall time of each recalculation (setCell, setCells, recomputeAll). */
+    public Histogram recalcNanos() {
+        return recalcNanos;
+    }
+
+    /** Cells re-evaluated by each recalculation. */
+    public Histogram cellsPerRecalc() {
+        return cellsPerRecalc;
+    }
+
+    /** The n formula cells of the sheet with the most total evaluation time, most expensive first. */
+    public List<FormulaCost> topFormulas(Spreadsheet sheet, int n) {
+        List<FormulaCost> out = new ArrayList<>();
+        if (n <= 0) return out;
+
+        PriorityQueue<FormulaCost> top = new PriorityQueue<>(Comparator.comparingLong(FormulaCost::totalNanos));
+        CellStore store = sheet.store();
+        for (long k : store.keys()) {
+            Cell c = store.cell(k);
+            FormulaCost cost = (c == null) ? null : c.cost;
+            if (cost == null || cost.owner != this) continue;
+            top.add(cost);
+            if (top.size() > n) top.poll();
+        }
+        while (!top.isEmpty()) out.add(0, top.poll());
+        return out;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("evaluations=").append(evaluations())
+                .append(" (p50 ").append(evaluationNanos.percentile(50))
+                .append("ns, p99 ").append(evaluationNanos.percentile(99)).append("ns)");
+        sb.append(", recalcs=").append(recalcNanos.count())
+                .append(" (cells p50 ").append(cellsPerRecalc.percentile(50))
+                .append(", max ").append(cellsPerRecalc.max()).append(")");
+        sb.append(", compilations=").append(compilations());
+        sb.append(", cycleChecks=").append(cycleChecks());
+        sb.append(", rangeCellsScanned=").append(rangeCellsScanned());
+        sb.append(", sharedCallHits=").append(sharedCallHits());
+        sb.append(", loads=").append(loads()).append(", saves=").append(saves());
+        return sb.toString();
+    }
+
+    /** Accumulated evaluation cost of one formula cell. */
+    public static final class FormulaCost {
+        final RecalcMetrics owner; // costs from an earlier enable() are ignored
+        private final long key;
+        final LongAdder count = new LongAdder();
+        final LongAdder nanos = new LongAdder();
+
+        FormulaCost(RecalcMetrics owner, long key) {
+            this.owner = owner;
+            this.key = key;
+        }
+
+        public String cell() {
+            return CellPos.toRef(key);
+        }
+
+        public long evaluations() {
+            return count.sum();
+        }
+
+        public long totalNanos() {
+            return nanos.sum();
+        }
+
+        @Override
+        public String toString() {
+            return cell() + ": " + evaluations() + " evaluations, " + totalNanos() / 1000 + "us";
+        }
+    }
+
+    /**
+     * Power-of-two buckets: bucket b holds values in [2^(b-1), 2^b). Percentiles are
+     * reported as the upper bound of their bucket, so they are within a factor of 2.
+     */
+    public static final class Histogram {
+        private final LongAdder[] buckets = new LongAdder[65];
+        private final LongAdder sum = new LongAdder();
+        private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+        Histogram() {
+            for (int i = 0; i < buckets.length; i++) buckets[i] = new LongAdder();
+        }
+
+        void record(long value) {
+            if (value < 0) value = 0;
+            buckets[64 - Long.numberOfLeadingZeros(value)].increment();
+            sum.add(value);
+            max.accumulate(value);
+        }
+
+        public long count() {
+            long n = 0;
+            for (LongAdder b : buckets) n += b.sum();
+            return n;
+        }
+
+        public long sum() {
+            return sum.sum();
+        }
+
+        public long max() {
+            return max.get();
+        }
+
+        public double mean() {
+            long n = count();
+            return (n == 0) ? 0.0 : (double) sum() / n;
+        }
+
+        /** @param p 0..100 */
+        public long percentile(double p) {
+            long[] counts = new long[buckets.length];
+            long n = 0;
+            for (int i = 0; i < buckets.length; i++) n += (counts[i] = buckets[i].sum());
+            if (n == 0) return 0;
+
+            long rank = (long) Math.ceil(p / 100.0 * n);
+            long seen = 0;
+            for (int b = 0; b < counts.length; b++) {
+                seen += counts[b];
+                if (seen >= Math.max(rank, 1)) return Math.min((b == 0) ? 0 : (1L << b) - 1, max());
+            }
+            return max();
+        }
+    }
+}
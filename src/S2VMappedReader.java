@@ -0,0 +1,275 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Drop-in alternative to {@link SpreadsheetIO#load} for large S2V files.
+ * The file is split into line-aligned chunks, each chunk is memory-mapped and
+ * parsed on its own worker, and the results are stored in file order through
+ * the bulk path followed by one {@link Spreadsheet#recomputeAll()}.
+ *
+ * Numbers are parsed straight from the mapped bytes. When the number prints back
+ * exactly as written, no String is created for it at all.
+ */
+public class S2VMappedReader {
+
+    private static final int MIN_CHUNK = 1 << 20;
+    private static final int MAX_CHUNK = 1 << 28; // each chunk is one mapping, well under 2 GB
+
+    private static final double[] POW10 = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    public static Spreadsheet load(String filename) throws IOException {
+        return load(filename, new HashCellStore(), ForkJoinPool.commonPool());
+    }
+
+    public static Spreadsheet load(String filename, CellStore store, ForkJoinPool pool) throws IOException {
+        Spreadsheet sheet = new Spreadsheet(store);
+
+        try (FileChannel ch = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+            List<Chunk> chunks = split(ch, pool.getParallelism());
+            pool.invoke(new ParseChunks(ch, chunks, 0, chunks.size()));
+
+            int rowBase = 1;
+            for (Chunk c : chunks) {
+                if (c.error != null) throw c.error;
+                for (int i = 0; i < c.size; i++) {
+                    long key = CellPos.pack(c.cols[i], rowBase + c.rows[i]);
+                    if (c.texts[i] == null) sheet.putNumber(key, c.values[i]);
+                    else sheet.putRaw(key, c.texts[i]);
+                }
+                rowBase += c.lines;
+            }
+        }
+
+        sheet.recomputeAll();
+        return sheet;
+    }
+
+    // ==========================================================
+    // 1) Line-aligned chunks
+    // ==========================================================
+
+    private static List<Chunk> split(FileChannel ch, int parallelism) throws IOException {
+        long size = ch.size();
+        long target = Math.max(MIN_CHUNK, Math.min(MAX_CHUNK, size / Math.max(1, parallelism * 4L)));
+
+        List<Chunk> chunks = new ArrayList<>();
+        long start = 0;
+        while (start < size) {
+            long end = Math.min(size, start + target);
+            if (end < size) end = nextLineStart(ch, end, size);
+            chunks.add(new Chunk(start, end));
+            start = end;
+        }
+        return chunks;
+    }
+
+    private static long nextLineStart(FileChannel ch, long pos, long size) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(8192);
+        while (pos < size) {
+            buf.clear();
+            int n = ch.read(buf, pos);
+            if (n <= 0) break;
+            for (int i = 0; i < n; i++) {
+                if (buf.get(i) == '\n') return pos + i + 1;
+            }
+            pos += n;
+        }
+        return size;
+    }
+
+    // ==========================================================
+    // 2) Parsing one chunk (runs on a worker, touches no shared state)
+    // ==========================================================
+
+    private static final class Chunk {
+        final long start, end;
+        int lines;       // '\n' count = rows fully contained
+        int size;
+        int[] rows = new int[256]; // relative to the chunk's first row
+        int[] cols = new int[256];
+        double[] values = new double[256];
+        String[] texts = new String[256]; // null = number in values
+        IOException error;
+
+        Chunk(long start, long end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        void add(int row, int col, double value, String text) {
+            if (size == rows.length) {
+                int n = size * 2;
+                rows = Arrays.copyOf(rows, n);
+                cols = Arrays.copyOf(cols, n);
+                values = Arrays.copyOf(values, n);
+                texts = Arrays.copyOf(texts, n);
+            }
+            rows[size] = row;
+            cols[size] = col;
+            values[size] = value;
+            texts[size] = text;
+            size++;
+        }
+    }
+
+    private static final class ParseChunks extends RecursiveAction {
+        private final FileChannel ch;
+        private final List<Chunk> chunks;
+        private final int from, to;
+
+        ParseChunks(FileChannel ch, List<Chunk> chunks, int from, int to) {
+            this.ch = ch;
+            this.chunks = chunks;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= 1) {
+                if (from == to) return; // empty file: no chunks
+                Chunk c = chunks.get(from);
+                try {
+                    parse(ch.map(FileChannel.MapMode.READ_ONLY, c.start, c.end - c.start), c);
+                } catch (IOException e) {
+                    c.error = e;
+                }
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new ParseChunks(ch, chunks, from, mid), new ParseChunks(ch, chunks, mid, to));
+        }
+    }
+
+    private static void parse(MappedByteBuffer buf, Chunk out) {
+        int n = buf.limit();
+        byte[] scratch = new byte[64];
+        StringBuilder canonical = new StringBuilder(32);
+
+        int row = 0, col = 0, fieldStart = 0;
+        for (int i = 0; i <= n; i++) {
+            byte b = (i < n) ? buf.get(i) : (byte) '\n';
+            if (b != ';' && b != '\n') continue;
+
+            int fieldEnd = i;
+            if (b == '\n' && fieldEnd > fieldStart && buf.get(fieldEnd - 1) == '\r') fieldEnd--;
+            if (i < n || fieldEnd > fieldStart || col > 0) {
+                scratch = field(buf, fieldStart, fieldEnd, row, col, out, scratch, canonical);
+            }
+
+            fieldStart = i + 1;
+            if (b == ';') {
+                col++;
+            } else {
+                if (i < n) out.lines++;
+                row++;
+                col = 0;
+            }
+        }
+    }
+
+    private static byte[] field(MappedByteBuffer buf, int from, int to, int row, int col,
+                                Chunk out, byte[] scratch, StringBuilder canonical) {
+        boolean formula = (to > from && buf.get(from) == '=');
+
+        int a = from, z = to;
+        while (a < z && isBlank(buf.get(a))) a++;
+        while (z > a && isBlank(buf.get(z - 1))) z--;
+        if (a == z) return scratch;
+
+        if (!formula) {
+            double v = parseNumber(buf, a, z);
+            if (!Double.isNaN(v) && printsAs(v, buf, a, z, canonical)) {
+                out.add(row, col, v, null);
+                return scratch;
+            }
+        }
+
+        int len = to - from;
+        if (scratch.length < len) scratch = new byte[Math.max(len, scratch.length * 2)];
+        buf.get(from, scratch, 0, len);
+        String raw = new String(scratch, 0, len, StandardCharsets.UTF_8);
+        if (formula) raw = raw.replace(',', ';');
+        out.add(row, col, 0.0, raw);
+        return scratch;
+    }
+
+    private static boolean isBlank(byte b) {
+        return b == ' ' || b == '\t' || b == '\r';
+    }
+
+    /**
+     * Plain decimal numbers ([+-]digits[.digits][e[+-]digits]) with at most 15 digits
+     * and a small exponent: one exact IEEE multiply/divide, so the result is the same
+     * as Double.parseDouble. Anything else returns NaN and goes through Cell.setRaw.
+     */
+    private static double parseNumber(MappedByteBuffer buf, int a, int z) {
+        int i = a;
+        boolean neg = false;
+        if (buf.get(i) == '+' || buf.get(i) == '-') {
+            neg = buf.get(i) == '-';
+            i++;
+        }
+
+        long mantissa = 0;
+        int digits = 0, scale = 0;
+        boolean dot = false;
+        for (; i < z; i++) {
+            byte b = buf.get(i);
+            if (b >= '0' && b <= '9') {
+                if (++digits > 15) return Double.NaN;
+                mantissa = mantissa * 10 + (b - '0');
+                if (dot) scale--;
+            } else if (b == '.' && !dot) {
+                dot = true;
+            } else {
+                break;
+            }
+        }
+        if (digits == 0) return Double.NaN;
+
+        if (i < z && (buf.get(i) == 'e' || buf.get(i) == 'E')) {
+            i++;
+            boolean expNeg = false;
+            if (i < z && (buf.get(i) == '+' || buf.get(i) == '-')) {
+                expNeg = buf.get(i) == '-';
+                i++;
+            }
+            int exp = 0, expDigits = 0;
+            for (; i < z && buf.get(i) >= '0' && buf.get(i) <= '9'; i++) {
+                if (++expDigits > 3) return Double.NaN;
+                exp = exp * 10 + (buf.get(i) - '0');
+            }
+            if (expDigits == 0) return Double.NaN;
+            scale += expNeg ? -exp : exp;
+        }
+        if (i != z || scale < -22 || scale > 22) return Double.NaN;
+
+        double v = (scale >= 0) ? mantissa * POW10[scale] : mantissa / POW10[-scale];
+        return neg ? -v : v;
+    }
+
+    // True if Cell.formatNumber(v) is exactly the field's text, so no raw String is needed
+    private static boolean printsAs(double v, MappedByteBuffer buf, int a, int z, StringBuilder sb) {
+        sb.setLength(0);
+        if (v == Math.rint(v) && Math.abs(v) < 1e15) sb.append((long) v);
+        else sb.append(v);
+
+        if (sb.length() != z - a) return false;
+        for (int k = 0; k < sb.length(); k++) {
+            if (sb.charAt(k) != buf.get(a + k)) return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,137 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * One result per distinct range-reading function call (see {@link FunctionCall#key}),
+ * shared by every formula containing it, so SUMA(A2:B5) repeated in a thousand cells
+ * scans A2:B5 once per recalculation. A result is dropped when a cell it reads changes;
+ * what each call reads is indexed by column, like range edges in {@link DependencyGraph}.
+ * A call that only one formula uses is not cached: the formula's own value covers it.
+ */
+final class SharedCalls {
+
+    static final class Entry {
+        final FunctionCall call;
+        final LongSet cells = new LongSet(4);
+        final List<int[]> ranges = new ArrayList<>(1); // {col1, row1, col2, row2}
+        long[] cols;
+        int users;
+        double value;
+        volatile boolean valid; // set after value; parallel recalc may fill it twice, equally
+
+        Entry(FunctionCall call) {
+            this.call = call;
+        }
+
+        boolean reads(long key) {
+            if (cells.contains(key)) return true;
+            int col = CellPos.col(key), row = CellPos.row(key);
+            for (int[] r : ranges) {
+                if (col >= r[0] && col <= r[2] && row >= r[1] && row <= r[3]) return true;
+            }
+            return false;
+        }
+
+        void set(double v) {
+            value = v;
+            valid = true;
+        }
+    }
+
+    private final Map<String, Entry> byKey = new HashMap<>();
+    // column -> entries reading (part of) that column
+    private final LongMap<List<Entry>> byCol = new LongMap<>();
+    // formula -> keys of the shared calls it contains (needed to release them)
+    private final LongMap<String[]> keysOf = new LongMap<>();
+
+    /** The shared result slot for key, or null if fewer than two calls use it. */
+    Entry get(String key) {
+        Entry e = byKey.get(key);
+        return (e != null && e.users > 1) ? e : null;
+    }
+
+    /** Replaces the shared calls registered for formula cell {@code key}. */
+    void setFormula(long key, CompiledFormula formula) {
+        String[] old = keysOf.remove(key);
+        if (old != null) {
+            for (String k : old) release(k);
+        }
+        if (formula == null) return;
+
+        List<FunctionCall> calls = new ArrayList<>(0);
+        collect(formula, calls);
+        if (calls.isEmpty()) return;
+
+        String[] keys = new String[calls.size()];
+        for (int i = 0; i < keys.length; i++) {
+            FunctionCall call = calls.get(i);
+            keys[i] = call.key;
+            Entry e = byKey.get(call.key);
+            if (e == null) byKey.put(call.key, e = index(new Entry(call)));
+            e.users++;
+        }
+        keysOf.put(key, keys);
+    }
+
+    // Shared calls of the formula, nested ones included (a nested result is shared too)
+    private static void collect(CompiledFormula f, List<FunctionCall> out) {
+        for (FunctionCall call : f.calls) {
+            if (call.key == null) continue;
+            out.add(call);
+            for (CompiledFormula expr : call.exprs) {
+                if (expr != null) collect(expr, out);
+            }
+        }
+    }
+
+    private Entry index(Entry e) {
+        LongSet cols = new LongSet(4);
+        e.call.visitPrecedents(new CompiledFormula.PrecedentVisitor() {
+            @Override
+            public void cell(int col, int row) {
+                e.cells.add(CellPos.pack(col, row));
+                cols.add(col);
+            }
+
+            @Override
+            public void range(int col1, int row1, int col2, int row2) {
+                e.ranges.add(new int[]{col1, row1, col2, row2});
+                for (int col = col1; col <= col2; col++) cols.add(col);
+            }
+        });
+        e.cols = cols.toArray();
+        for (long col : e.cols) {
+            List<Entry> l = byCol.get(col);
+            if (l == null) byCol.put(col, l = new ArrayList<>(2));
+            l.add(e);
+        }
+        return e;
+    }
+
+    private void release(String key) {
+        Entry e = byKey.get(key);
+        if (--e.users > 0) return;
+
+        byKey.remove(key);
+        for (long col : e.cols) {
+            List<Entry> l = byCol.get(col);
+            l.remove(e);
+            if (l.isEmpty()) byCol.remove(col);
+        }
+    }
+
+    /** The value of key is changing: every result that read it is stale. */
+    void changed(long key) {
+        List<Entry> l = byCol.get(CellPos.col(key));
+        if (l == null) return;
+        for (Entry e : l) {
+            if (e.valid && e.reads(key)) e.valid = false;
+        }
+    }
+
+    void invalidateAll() {
+        for (Entry e : byKey.values()) e.valid = false;
+    }
+}
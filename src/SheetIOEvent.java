@@ -0,0 +1,19 @@
+import jdk.jfr.Category;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/** An S2V load or save. */
+@Name("spreadsheet.IO")
+@Label("Sheet I/O")
+@Category("Spreadsheet")
+public class SheetIOEvent extends jdk.jfr.Event {
+
+    @Label("Operation")
+    String operation;
+
+    @Label("File")
+    String file;
+
+    @Label("Cells")
+    int cells;
+}
@@ -0,0 +1,219 @@
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serves one shared {@link ConcurrentSpreadsheet} on localhost over a line protocol.
+ * Every connection gets its own virtual thread, so thousands of mostly idle clients
+ * cost little. Reads go to the published snapshot and never wait for writers.
+ *
+ * Requests are one line each (UTF-8); every request gets exactly one reply line:
+ * <pre>
+ *   SET A1 =B1*2        -> OK
+ *   GET A1              -> VALUE 42
+ *   RAW A1              -> RAW =B1*2
+ *   BATCH 2             -> OK 2       (followed by 2 lines "ref content", applied atomically)
+ *   LOAD file.s2v       -> OK       (relative to the data directory)
+ *   SAVE file.s2v       -> OK
+ *   PING                -> PONG
+ *   QUIT                   (closes the connection)
+ * </pre>
+ * A failed request is answered with {@code ERROR <message>} and the connection stays
+ * open. An unknown command gets {@code ERROR} and the connection is closed; a line
+ * that looks like HTTP closes it without a reply, so a web page cannot use a browser
+ * to talk to the server. LOAD and SAVE only reach files inside the data directory
+ * given at construction (none: both are refused).
+ */
+public class SheetServer implements Closeable {
+
+    private static final Set<String> COMMANDS = Set.of("GET", "RAW", "SET", "BATCH", "LOAD", "SAVE", "PING", "QUIT");
+    private static final Pattern HTTP_REQUEST = Pattern.compile("[A-Za-z]+ \\S+ HTTP/\\d.*");
+
+    private final ConcurrentSpreadsheet sheet;
+    private final Path dataDir; // null = LOAD/SAVE refused
+    private final ServerSocket server;
+    private final ExecutorService connections = Executors.newVirtualThreadPerTaskExecutor();
+    private final Set<Socket> open = ConcurrentHashMap.newKeySet();
+    private volatile boolean closed;
+    private Thread acceptor;
+
+    /** Binds to 127.0.0.1 without file access; port 0 picks a free port (see {@link #port()}). */
+    public SheetServer(ConcurrentSpreadsheet sheet, int port) throws IOException {
+        this(sheet, port, null);
+    }
+
+    /** Same, with LOAD and SAVE confined to the existing directory {@code dataDir}. */
+    public SheetServer(ConcurrentSpreadsheet sheet, int port, Path dataDir) throws IOException {
+        this.sheet = sheet;
+        this.dataDir = (dataDir == null) ? null : dataDir.toRealPath();
+        this.server = new ServerSocket(port, 1024, InetAddress.getLoopbackAddress());
+    }
+
+    public int port() {
+        return server.getLocalPort();
+    }
+
+    public synchronized void start() {
+        if (acceptor != null) return;
+        acceptor = Thread.ofVirtual().name("sheet-server-accept").start(this::acceptLoop);
+    }
+
+    /** Blocks until the server is closed. */
+    public void join() throws InterruptedException {
+        Thread t;
+        synchronized (this) {
+            t = acceptor;
+        }
+        if (t != null) t.join();
+    }
+
+    private void acceptLoop() {
+        while (!closed) {
+            try {
+                Socket s = server.accept();
+                open.add(s);
+                connections.execute(() -> serve(s));
+            } catch (IOException e) {
+                if (closed) return;
+                // a failed accept only affects that one client
+            }
+        }
+    }
+
+    private void serve(Socket s) {
+        try (s;
+             BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
+             Writer out = new BufferedWriter(new OutputStreamWriter(s.getOutputStream(), StandardCharsets.UTF_8))) {
+
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (HTTP_REQUEST.matcher(line).matches()) break; // nothing a browser should read
+
+                String cmd = command(line);
+                if (!COMMANDS.contains(cmd)) {
+                    out.write("ERROR Unknown command: " + cmd + "\n");
+                    out.flush();
+                    break;
+                }
+
+                String reply;
+                try {
+                    reply = handle(line, in);
+                } catch (IOException | RuntimeException e) {
+                    reply = "ERROR " + e.getMessage();
+                }
+                if (reply == null) break; // QUIT
+
+                out.write(reply);
+                out.write('\n');
+                // pipelined requests are answered in one write
+                if (!in.ready()) out.flush();
+            }
+        } catch (IOException e) {
+            // the client went away
+        } finally {
+            open.remove(s);
+        }
+    }
+
+    private static String command(String line) {
+        int sp = line.indexOf(' ');
+        return (sp < 0 ? line : line.substring(0, sp)).trim().toUpperCase(Locale.ROOT);
+    }
+
+    // Returns the reply line, or null to close the connection
+    private String handle(String line, BufferedReader in) throws IOException {
+        int sp = line.indexOf(' ');
+        String cmd = command(line);
+        String rest = (sp < 0) ? "" : line.substring(sp + 1);
+
+        switch (cmd) {
+            case "GET":
+                return "VALUE " + Cell.formatNumber(sheet.evaluateCell(rest.trim()));
+            case "RAW":
+                return "RAW " + sheet.getRaw(rest.trim());
+            case "SET": {
+                String[] edit = edit(rest);
+                sheet.setCell(edit[0], edit[1]);
+                return "OK";
+            }
+            case "BATCH": {
+                int n = Integer.parseInt(rest.trim());
+                Map<String, String> edits = new LinkedHashMap<>();
+                // read every line first so a bad batch does not desync the connection
+                for (int i = 0; i < n; i++) {
+                    String l = in.readLine();
+                    if (l == null) throw new EOFException("Batch ended after " + i + " of " + n + " lines");
+                    String[] edit = edit(l);
+                    edits.put(edit[0], edit[1]);
+                }
+                sheet.setCells(edits);
+                return "OK " + n;
+            }
+            case "LOAD":
+                sheet.load(file(rest.trim()));
+                return "OK";
+            case "SAVE":
+                sheet.save(file(rest.trim()));
+                return "OK";
+            case "PING":
+                return "PONG";
+            case "QUIT":
+                return null;
+            default:
+                throw new IllegalArgumentException("Unknown command: " + cmd);
+        }
+    }
+
+    // name resolved inside dataDir; "..", absolute paths and symlinks leading out are refused
+    private String file(String name) throws IOException {
+        if (dataDir == null) throw new IllegalArgumentException("File access is disabled (no data directory)");
+
+        Path p = dataDir.resolve(name).normalize();
+        if (!p.startsWith(dataDir) || p.equals(dataDir)) {
+            throw new IllegalArgumentException("Path outside the data directory: " + name);
+        }
+        Path real = Files.exists(p) ? p.toRealPath() : p.getParent().toRealPath().resolve(p.getFileName());
+        if (!real.startsWith(dataDir)) throw new IllegalArgumentException("Path outside the data directory: " + name);
+        return real.toString();
+    }
+
+    // "A1 some content" -> {"A1", "some content"}; the content may be empty
+    private static String[] edit(String s) {
+        int k = s.indexOf(' ');
+        if (k < 0) return new String[]{s.trim(), ""};
+        return new String[]{s.substring(0, k), s.substring(k + 1)};
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        server.close();
+        for (Socket s : open) {
+            try {
+                s.close();
+            } catch (IOException e) {
+                // already gone
+            }
+        }
+        connections.shutdown();
+        try {
+            connections.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,82 @@
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * An immutable, fully recalculated version of a sheet (see {@link Spreadsheet#snapshot()}).
+ * Safe to read from any number of threads while the sheet keeps changing; dropping
+ * one just lets it be collected.
+ */
+public final class SheetSnapshot {
+
+    static final class Entry {
+        final String raw;              // null = Cell.formatNumber(value)
+        final double value;
+        final RuntimeException error;  // the cell could not be evaluated
+
+        Entry(String raw, double value, RuntimeException error) {
+            this.raw = raw;
+            this.value = value;
+            this.error = error;
+        }
+    }
+
+    private final PersistentLongMap<Entry> cells;
+    private final long version;
+
+    SheetSnapshot(PersistentLongMap<Entry> cells, long version) {
+        this.cells = cells;
+        this.version = version;
+    }
+
+    // What a reader of the sheet sees at key right now, or null for an empty cell
+    static Entry entry(Spreadsheet sheet, long key) {
+        String raw = sheet.getRaw(key);
+        if (raw == null || raw.isEmpty()) return null;
+
+        double value = 0.0;
+        RuntimeException error = null;
+        try {
+            value = sheet.demand(key);
+        } catch (RuntimeException e) {
+            error = e;
+        }
+        if (error == null && raw.equals(Cell.formatNumber(value))) raw = null;
+        return new Entry(raw, value, error);
+    }
+
+    /** Grows with every change to the sheet; equal versions hold equal contents. */
+    public long version() {
+        return version;
+    }
+
+    public int size() {
+        return cells.size();
+    }
+
+    public double evaluateCell(String ref) {
+        Entry e = cells.get(Spreadsheet.key(ref));
+        if (e == null) return 0.0;
+        if (e.error != null) throw e.error;
+        return e.value;
+    }
+
+    public String getRaw(String ref) {
+        return getRaw(Spreadsheet.key(ref));
+    }
+
+    String getRaw(long key) {
+        Entry e = cells.get(key);
+        if (e == null) return "";
+        return (e.raw != null) ? e.raw : Cell.formatNumber(e.value);
+    }
+
+    public Set<String> allNonEmptyCells() {
+        Set<String> s = new HashSet<>();
+        cells.forEach((k, e) -> s.add(CellPos.toRef(k)));
+        return s;
+    }
+
+    long[] nonEmptyKeys() {
+        return cells.keys();
+    }
+}
@@ -16,6 +16,7 @@ public class ShuntingYard {
             switch (t.type) {
                 case NUMBER:
                 case CELL:
+                case FUNCTION:
                     out.add(t);
                     break;
 
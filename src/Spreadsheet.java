@@ -1,57 +1,432 @@
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 public class Spreadsheet {
 
-    private final Map<String, Cell> cells = new HashMap<>();
+    private static final int INDEX_MIN_CELLS = 64; // smaller ranges are cheaper to scan
 
-    private static String norm(String ref) {
+    // keyed by CellPos.pack(col, row); string refs are only parsed at the public API
+    private final CellStore store;
+    private final DependencyGraph graph = new DependencyGraph();
+    private ForkJoinPool recalcPool; // null = sequential recomputeAll
+    private AggregateIndex aggregateIndex; // null = ranges are always scanned
+
+    // Persistent copy of what readers see, kept only once snapshot() has been called
+    private PersistentLongMap<SheetSnapshot.Entry> versions;
+    private boolean versionsStale;
+    private long version;
+
+    private final SubscriptionIndex subscriptions = new SubscriptionIndex();
+    private final SharedCalls sharedCalls = new SharedCalls();
+    private boolean lazy; // formulas are left stale until read (see invalidateAll)
+    private boolean vectorRanges; // range folds go through VectorRangeScan
+
+    public Spreadsheet() {
+        this(new HashCellStore());
+    }
+
+    /** Use e.g. {@link TiledCellStore} for large, dense numeric sheets. */
+    public Spreadsheet(CellStore store) {
+        this.store = store;
+    }
+
+    static long key(String ref) {
         if (ref == null) throw new IllegalArgumentException("Null cell ref");
-        ref = ref.trim().toUpperCase();
-        if (ref.isEmpty()) throw new IllegalArgumentException("Empty cell ref");
-        return ref;
+        if (ref.trim().isEmpty()) throw new IllegalArgumentException("Empty cell ref");
+        return CellPos.parseKey(ref);
     }
 
+    /**
+     * The stored cell at ref. Cells the store keeps in primitive form (empty cells,
+     * numbers in a {@link TiledCellStore}) come back as a detached copy.
+     */
     public Cell getCell(String ref) {
-        ref = norm(ref);
-        return cells.computeIfAbsent(ref, k -> new Cell());
+        long key = key(ref);
+        Cell c = store.cell(key);
+        if (c == null) {
+            c = new Cell();
+            c.setRaw(store.raw(key));
+        }
+        return c;
+    }
+
+    // Read-only lookup, safe from recalc worker threads
+    CellType typeAt(int col, int row) {
+        return store.type(CellPos.pack(col, row));
+    }
+
+    CellStore store() {
+        return store;
+    }
+
+    SharedCalls sharedCalls() {
+        return sharedCalls;
     }
 
     public void setCell(String ref, String content) {
-        ref = norm(ref);
+        setCell(key(ref), content);
+    }
 
-        Cell cell = getCell(ref);
-        String old = cell.getRaw();
+    void setCell(long key, String content) {
+        RecalcEvent event = new RecalcEvent();
+        event.begin();
+        long start = System.nanoTime();
+        Cell cell = new Cell();
+        cell.setRaw(content); // a bad formula throws here, before anything is stored
 
-        cell.setRaw(content);
+        // Checked on the graph before anything changes: only cells downstream of key
+        // can close a cycle, so this costs the size of that region, not an evaluation
+        if (cell.getType() == CellType.FORMULA) {
+            long checkStart = System.nanoTime();
+            long[] cycle = graph.findCycle(key, cell.getFormula());
+            RecalcMetrics m = RecalcMetrics.active;
+            if (m != null) m.cycleChecked(System.nanoTime() - checkStart);
+            if (cycle != null) throw new CircularDependencyException(cycle);
+        }
 
-        // Validate: if formula introduces a cycle, rollback
-        try {
-            if (cell.getType() == CellType.FORMULA) {
-                evaluateCell(ref);
+        Cell oldCell = store.cell(key);
+        String oldRaw = (oldCell == null) ? store.raw(key) : null;
+        subscriptions.beforeChange(key, currentValue(key));
+        place(key, cell);
+
+        // Everything downstream is stale now
+        long[] dirty = graph.dependentsInOrder(key);
+        for (long dep : dirty) {
+            invalidate(dep);
+        }
+
+        // The edited formula itself must evaluate; if it does not, put the old content back
+        if (cell.getType() == CellType.FORMULA) {
+            try {
+                demand(key);
+            } catch (RuntimeException e) {
+                if (oldCell == null) {
+                    oldCell = new Cell();
+                    oldCell.setRaw(oldRaw);
+                }
+                place(key, oldCell);
+                recompute(dirty);
+                subscriptions.discard();
+                throw e;
             }
+        }
+        recompute(dirty);
+
+        long[] changed = Arrays.copyOf(dirty, dirty.length + 1);
+        changed[dirty.length] = key;
+        track(changed);
+        recalculated(event, "setCell", changed.length, start);
+        subscriptions.deliver(this);
+    }
+
+    /**
+     * Applies many edits as one transaction: one cycle check and one recalculation
+     * over the edited cells and everything downstream of them. If any edit fails
+     * (bad formula, cycle, or an edited formula that cannot be evaluated) the whole
+     * batch is rolled back and the error rethrown. Two refs naming the same cell
+     * (e.g. "a1" and "A1") are rejected, since a Map gives no order to pick a winner.
+     */
+    public void setCells(Map<String, String> edits) {
+        RecalcEvent event = new RecalcEvent();
+        event.begin();
+        long start = System.nanoTime();
+        LongMap<Cell> staged = new LongMap<>(edits.size());
+        for (Map.Entry<String, String> e : edits.entrySet()) {
+            Cell cell = new Cell();
+            cell.setRaw(e.getValue()); // a bad formula throws here, before anything is stored
+            long k = key(e.getKey());
+            if (staged.put(k, cell) != null) {
+                throw new IllegalArgumentException("Cell " + CellPos.toRef(k) + " is edited twice in one batch");
+            }
+        }
+
+        long[] keys = staged.keys();
+        Cell[] oldCells = new Cell[keys.length];
+        String[] oldRaw = new String[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            oldCells[i] = store.cell(keys[i]);
+            if (oldCells[i] == null) oldRaw[i] = store.raw(keys[i]);
+            subscriptions.beforeChange(keys[i], currentValue(keys[i]));
+            place(keys[i], staged.get(keys[i]));
+        }
+
+        try {
+            long[] region = recomputeRegion(keys, staged);
+            track(region);
+            recalculated(event, "setCells", region.length, start);
         } catch (RuntimeException e) {
-            cell.setRaw(old);
+            for (int i = 0; i < keys.length; i++) {
+                Cell old = oldCells[i];
+                if (old == null) {
+                    old = new Cell();
+                    old.setRaw(oldRaw[i]);
+                }
+                place(keys[i], old);
+            }
+            try {
+                recomputeRegion(keys, null);
+            } catch (CircularDependencyException ignored) {
+                // the sheet already had a cycle before the batch
+            }
+            subscriptions.discard();
             throw e;
         }
+        subscriptions.deliver(this);
+    }
+
+    // Invalidates roots and their dependents, then evaluates them level by level.
+    // Only failures in cells of strict are thrown; others stay invalid, as in recompute.
+    private long[] recomputeRegion(long[] roots, LongMap<Cell> strict) {
+        List<long[]> levels = levels(roots);
+        int n = 0;
+        for (long[] level : levels) {
+            for (long k : level) {
+                invalidate(k);
+            }
+            n += level.length;
+        }
+
+        long[] region = new long[n];
+        n = 0;
+
+        for (long[] level : levels) {
+            for (long k : level) {
+                region[n++] = k;
+                try {
+                    evaluateCell(k);
+                } catch (RuntimeException e) {
+                    if (strict != null && strict.containsKey(k)) throw e;
+                }
+            }
+        }
+        return region;
+    }
+
+    /**
+     * Bulk-ingest path: stores content and its dependency edges without validating or
+     * evaluating anything. Call {@link #recomputeAll()} once all cells are in; it does
+     * the single cycle check and the single ordered recalculation.
+     */
+    void putRaw(long key, String content) {
+        Cell cell = new Cell();
+        cell.setRaw(content);
+        putCell(key, cell);
+    }
+
+    // Bulk-ingest of a ready-made cell; a valid formula keeps its cached value
+    void putCell(long key, Cell cell) {
+        place(key, cell);
+        staleVersions();
+    }
+
+    // Bulk-ingest of a number whose raw text is Cell.formatNumber(value)
+    void putNumber(long key, double value) {
+        staleVersions();
+        store.putNumber(key, value);
+        if (aggregateIndex != null) {
+            aggregateIndex.update(CellPos.col(key), CellPos.row(key), CellType.NUMBER, value);
+        }
+        sharedCalls.changed(key);
+        graph.setFormula(key, null);
+        sharedCalls.setFormula(key, null);
+    }
+
+    private void place(long key, Cell cell) {
+        put(key, cell);
+        graph.setFormula(key, cell.getFormula());
+        sharedCalls.setFormula(key, cell.getFormula());
+    }
+
+    private void put(long key, Cell cell) {
+        sharedCalls.changed(key);
+        store.put(key, cell);
+        if (aggregateIndex != null) {
+            aggregateIndex.update(CellPos.col(key), CellPos.row(key), cell.getType(), cell.getCachedNumber());
+        }
+    }
+
+    /**
+     * Keeps a per-column sum/count/min/max index so range functions over large
+     * number-only ranges are answered in O(log n) instead of visiting every cell.
+     */
+    public void setAggregateIndexEnabled(boolean enabled) {
+        if (!enabled) {
+            aggregateIndex = null;
+            return;
+        }
+        if (aggregateIndex != null) return;
+
+        AggregateIndex idx = new AggregateIndex();
+        for (long k : store.keys()) {
+            idx.update(CellPos.col(k), CellPos.row(k), store.type(k), store.number(k));
+        }
+        aggregateIndex = idx;
+    }
+
+    /**
+     * Folds the numbers of SUMA/PROMEDIO/MIN/MAX/COUNT ranges with SIMD instructions,
+     * 8 cells per step, instead of one cell at a time. Needs a {@link TiledCellStore}
+     * and a JVM started with --add-modules jdk.incubator.vector; otherwise ranges keep
+     * the scalar scan. Returns whether the vector path is now on.
+     */
+    public boolean setVectorRangesEnabled(boolean enabled) {
+        vectorRanges = enabled && store instanceof TiledCellStore
+                && ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent();
+        return vectorRanges;
+    }
+
+    boolean vectorRanges() {
+        return vectorRanges;
+    }
+
+    // Stats of a range from the index, or null if it has to be scanned
+    RangeStats indexedStats(int col1, int row1, int col2, int row2) {
+        if (aggregateIndex == null) return null;
+        if ((long) (col2 - col1 + 1) * (row2 - row1 + 1) < INDEX_MIN_CELLS) return null;
+        return aggregateIndex.query(col1, row1, col2, row2);
+    }
+
+    // key's value is about to be recomputed
+    private void invalidate(long key) {
+        subscriptions.beforeChange(key, currentValue(key));
+        sharedCalls.changed(key);
+        Cell c = store.cell(key);
+        if (c != null) c.invalidate();
+    }
+
+    // Only formulas downstream of the edit are recomputed, precedents before dependents
+    private void recompute(long[] dirty) {
+        for (long dep : dirty) {
+            try {
+                demand(dep);
+            } catch (RuntimeException e) {
+                // stays invalid; the error is reported when the cell is read
+            }
+        }
     }
 
     public double evaluateCell(String ref) {
-        ref = norm(ref);
-        return evaluateCellInternal(ref, new HashSet<>());
+        return demand(key(ref));
+    }
+
+    double evaluateCell(long key) {
+        return evaluateCellInternal(key, new LongSet());
+    }
+
+    /**
+     * Values of the rectangle "A1:D20" (or one cell), indexed [row][col] from its top-left
+     * corner. Only these cells and the precedents they need are evaluated, which is all a
+     * lazily loaded sheet computes to show a screenful. Cells that fail to evaluate are NaN.
+     */
+    public double[][] viewport(String range) {
+        if (range == null) throw new IllegalArgumentException("Null cell ref");
+
+        int colon = range.indexOf(':');
+        long a = key(colon < 0 ? range : range.substring(0, colon));
+        long b = (colon < 0) ? a : key(range.substring(colon + 1));
+        int col1 = Math.min(CellPos.col(a), CellPos.col(b)), col2 = Math.max(CellPos.col(a), CellPos.col(b));
+        int row1 = Math.min(CellPos.row(a), CellPos.row(b)), row2 = Math.max(CellPos.row(a), CellPos.row(b));
+
+        double[][] out = new double[row2 - row1 + 1][col2 - col1 + 1];
+        for (int row = row1; row <= row2; row++) {
+            for (int col = col1; col <= col2; col++) {
+                try {
+                    out[row - row1][col - col1] = demand(CellPos.pack(col, row));
+                } catch (RuntimeException e) {
+                    out[row - row1][col - col1] = Double.NaN;
+                }
+            }
+        }
+        return out;
+    }
+
+    // Value of key for a reader. In a lazy sheet a stale formula's stale precedents are
+    // evaluated first, deepest first, so a long never-computed chain is walked with an
+    // explicit stack instead of one Java frame per link.
+    double demand(long key) {
+        if (lazy && stale(key)) {
+            for (long k : stalePrecedents(key)) {
+                try {
+                    evaluateCell(k);
+                } catch (RuntimeException e) {
+                    // stays invalid; reading key reports it
+                }
+            }
+        }
+        return evaluateCell(key);
+    }
+
+    private boolean stale(long key) {
+        Cell c = store.cell(key);
+        return c != null && c.getType() == CellType.FORMULA && !c.isValid();
+    }
+
+    // Stale formulas key reads (transitively), in post-order: precedents before dependents.
+    // A cycle is cut where it closes; evaluating it later still reports it.
+    private long[] stalePrecedents(long key) {
+        LongSet seen = new LongSet();
+        long[] order = new long[16];
+        int n = 0;
+        long[] stack = new long[16];
+        boolean[] expanded = new boolean[16];
+        int sp = 0;
+        stack[sp++] = key;
+
+        while (sp > 0) {
+            long k = stack[--sp];
+            if (expanded[sp]) {
+                if (k == key) break;
+                if (n == order.length) order = Arrays.copyOf(order, n * 2);
+                order[n++] = k;
+                continue;
+            }
+            if (!seen.add(k)) continue;
+            expanded[sp++] = true;
+
+            LongSet next = new LongSet(4);
+            store.cell(k).getFormula().visitPrecedents(new CompiledFormula.PrecedentVisitor() {
+                @Override
+                public void cell(int col, int row) {
+                    long p = CellPos.pack(col, row);
+                    if (stale(p) && !seen.contains(p)) next.add(p);
+                }
+
+                @Override
+                public void range(int col1, int row1, int col2, int row2) {
+                    for (int col = col1; col <= col2; col++) {
+                        final int c = col;
+                        store.forEachInColumn(col, row1, row2, (row, type, number) -> {
+                            long p = CellPos.pack(c, row);
+                            if (type == CellType.FORMULA && stale(p) && !seen.contains(p)) next.add(p);
+                        });
+                    }
+                }
+            });
+
+            for (long p : next.toArray()) {
+                if (sp == stack.length) {
+                    stack = Arrays.copyOf(stack, sp * 2);
+                    expanded = Arrays.copyOf(expanded, sp * 2);
+                }
+                stack[sp] = p;
+                expanded[sp++] = false;
+            }
+        }
+        return Arrays.copyOf(order, n);
     }
 
     // IMPORTANT: used by FormulaEvaluator to keep ONE visiting set across the whole chain
-    double evaluateCellInternal(String ref, Set<String> visiting) {
-        ref = ref.trim().toUpperCase();
+    double evaluateCellInternal(long key, LongSet visiting) {
+        Cell c = store.cell(key);
+        if (c == null) return store.number(key); // empty, or a number kept in primitive form
+        if (c.isValid()) return c.getCachedNumber();
 
-        if (visiting.contains(ref)) {
-            throw new CircularDependencyException("Circular dependency at " + ref);
+        if (!visiting.add(key)) {
+            throw new CircularDependencyException("Circular dependency at " + CellPos.toRef(key));
         }
 
-        visiting.add(ref);
         try {
-            Cell c = getCell(ref);
-
             switch (c.getType()) {
                 case EMPTY:
                     return 0.0;
@@ -62,39 +437,236 @@ public class Spreadsheet {
                 case TEXT:
                     return 0.0; // keep it simple
 
-                case FORMULA:
-                    double v = FormulaEvaluator.evaluate(c.getRaw().substring(1), this, visiting);
+                case FORMULA: {
+                    RecalcMetrics m = RecalcMetrics.active;
+                    CellEvaluationEvent event = new CellEvaluationEvent();
+                    event.begin();
+                    long start = (m != null) ? System.nanoTime() : 0L;
+
+                    double v = FormulaEvaluator.run(c.getFormula(), this, visiting);
+
+                    if (m != null) m.evaluated(key, c, System.nanoTime() - start);
+                    if (event.shouldCommit()) {
+                        event.cell = CellPos.toRef(key);
+                        event.commit();
+                    }
                     c.setCachedNumber(v);
+                    c.markValid();
                     return v;
+                }
 
                 default:
                     return 0.0;
             }
         } finally {
             // ✅ CRITICAL: remove after finishing evaluation
-            visiting.remove(ref);
+            visiting.remove(key);
         }
     }
 
 
     public String getRaw(String ref) {
-        ref = ref.trim().toUpperCase();
-        Cell c = cells.get(ref);      // direct map access
-        return (c == null) ? "" : c.getRaw();
+        return getRaw(key(ref));
+    }
+
+    String getRaw(long key) {
+        return store.raw(key);
     }
 
 
     public Set<String> allNonEmptyCells() {
         Set<String> s = new HashSet<>();
-        for (Map.Entry<String, Cell> e : cells.entrySet()) {
-            if (!e.getValue().getRaw().isEmpty()) s.add(e.getKey());
-        }
+        for (long k : nonEmptyKeys()) s.add(CellPos.toRef(k));
+        return s;
+    }
+
+    long[] nonEmptyKeys() {
+        return store.keys();
+    }
+
+    /**
+     * Calls {@code listener} once per recalculation with the cells of {@code cellOrRange}
+     * ("B2" or "A1:C10") whose value changed, old and new. Unchanged values are never
+     * reported; a cell that cannot be evaluated, or that a lazily loaded sheet has not
+     * computed yet, reports NaN. Cells written by the bulk-load path are only reported
+     * when recomputeAll changes a formula's value.
+     */
+    public Subscription subscribe(String cellOrRange, ChangeListener listener) {
+        if (listener == null) throw new IllegalArgumentException("Null listener");
+        if (cellOrRange == null) throw new IllegalArgumentException("Null cell ref");
+
+        int colon = cellOrRange.indexOf(':');
+        long a = key(colon < 0 ? cellOrRange : cellOrRange.substring(0, colon));
+        long b = (colon < 0) ? a : key(cellOrRange.substring(colon + 1));
+
+        Subscription s = new Subscription(
+                Math.min(CellPos.col(a), CellPos.col(b)), Math.min(CellPos.row(a), CellPos.row(b)),
+                Math.max(CellPos.col(a), CellPos.col(b)), Math.max(CellPos.row(a), CellPos.row(b)),
+                listener, subscriptions);
+        subscriptions.add(s);
         return s;
     }
 
+    // The value readers would see now, without evaluating anything: NaN for a formula
+    // that is not valid (it is about to be recomputed, or cannot be evaluated)
+    double currentValue(long key) {
+        Cell c = store.cell(key);
+        if (c == null) return store.number(key);
+        switch (c.getType()) {
+            case NUMBER:
+                return c.getCachedNumber();
+            case FORMULA:
+                return c.isValid() ? c.getCachedNumber() : Double.NaN;
+            default:
+                return 0.0;
+        }
+    }
+
+    /**
+     * An immutable version of the sheet as it is now. The first call copies the sheet;
+     * from then on every edit also updates a persistent (structurally shared) copy,
+     * so later snapshots are O(1) and only the cells an edit changed are duplicated.
+     * Bulk loads and recomputeAll make the next snapshot copy the sheet again.
+     */
+    public SheetSnapshot snapshot() {
+        if (versions == null || versionsStale) {
+            PersistentLongMap<SheetSnapshot.Entry> m = PersistentLongMap.empty();
+            for (long k : store.keys()) {
+                SheetSnapshot.Entry e = SheetSnapshot.entry(this, k);
+                if (e != null) m = m.put(k, e);
+            }
+            versions = m;
+            versionsStale = false;
+        }
+        return new SheetSnapshot(versions, version);
+    }
+
+    // Brings the persistent copy up to date with the cells an edit changed
+    private void track(long[] changed) {
+        version++;
+        if (versions == null || versionsStale) return;
+
+        PersistentLongMap<SheetSnapshot.Entry> m = versions;
+        for (long k : changed) {
+            SheetSnapshot.Entry e = SheetSnapshot.entry(this, k);
+            m = (e == null) ? m.remove(k) : m.put(k, e);
+        }
+        versions = m;
+    }
+
+    private void staleVersions() {
+        if (!versionsStale) version++;
+        versionsStale = true;
+    }
+
+    /**
+     * Makes recomputeAll evaluate independent formulas concurrently on {@code pool},
+     * one topological level at a time. Pass null to go back to sequential recalculation.
+     */
+    public void setRecalcPool(ForkJoinPool pool) {
+        recalcPool = pool;
+    }
+
+    /**
+     * Drops every cached formula value without recomputing anything: each formula is
+     * evaluated, together with its stale precedents, the first time it is read. The
+     * lazy counterpart of {@link #recomputeAll}; cycles are reported when read.
+     */
+    public void invalidateAll() {
+        staleVersions();
+        store.forEachCell((k, c) -> c.invalidate());
+        sharedCalls.invalidateAll();
+        lazy = true;
+    }
+
+    /**
+     * Re-evaluates every formula once, in topological order, so no evaluation has to
+     * recurse into a stale precedent. Throws CircularDependencyException if the
+     * stored formulas contain a cycle (possible after {@link #putRaw}).
+     */
     public void recomputeAll() {
-        for (String ref : allNonEmptyCells()) {
-            evaluateCell(ref);
+        RecalcEvent event = new RecalcEvent();
+        event.begin();
+        long start = System.nanoTime();
+        staleVersions();
+        store.forEachCell((k, c) -> {
+            subscriptions.beforeChange(k, currentValue(k));
+            c.invalidate();
+        });
+        sharedCalls.invalidateAll();
+
+        List<long[]> levels = levels(null);
+        if (recalcPool != null) {
+            recomputeLevels(recalcPool, levels);
+        } else {
+            for (long[] level : levels) {
+                for (long k : level) {
+                    evaluateCell(k);
+                }
+            }
+        }
+
+        lazy = false;
+        int cells = 0;
+        for (long[] level : levels) cells += level.length;
+        recalculated(event, "recomputeAll", cells, start);
+        subscriptions.deliver(this);
+    }
+
+    // Topological levels of the roots' region (all formulas for null); this is also
+    // the cycle check, so it is timed as one
+    private List<long[]> levels(long[] roots) {
+        long start = System.nanoTime();
+        try {
+            return (roots == null) ? graph.levels() : graph.levels(roots);
+        } finally {
+            RecalcMetrics m = RecalcMetrics.active;
+            if (m != null) m.cycleChecked(System.nanoTime() - start);
+        }
+    }
+
+    private static void recalculated(RecalcEvent event, String kind, int cells, long start) {
+        RecalcMetrics m = RecalcMetrics.active;
+        if (m != null) m.recalculated(cells, System.nanoTime() - start);
+
+        if (event.shouldCommit()) {
+            event.kind = kind;
+            event.cells = cells;
+            event.commit();
+        }
+    }
+
+    // Every formula in a level only reads cells from earlier levels, which are already
+    // valid, so each worker writes just the cells of its own slice and nothing else.
+    // invoke() returning is the happens-before edge for the next level's reads.
+    private void recomputeLevels(ForkJoinPool pool, List<long[]> levels) {
+        for (long[] level : levels) {
+            pool.invoke(new LevelSlice(level, 0, level.length));
+        }
+    }
+
+    private class LevelSlice extends RecursiveAction {
+        private static final int THRESHOLD = 256;
+
+        private final long[] keys;
+        private final int from, to;
+
+        LevelSlice(long[] keys, int from, int to) {
+            this.keys = keys;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= THRESHOLD) {
+                for (int i = from; i < to; i++) {
+                    evaluateCell(keys[i]);
+                }
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new LevelSlice(keys, from, mid), new LevelSlice(keys, mid, to));
         }
     }
 }
@@ -1,54 +1,134 @@
 import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.function.LongFunction;
 
 public class SpreadsheetIO {
 
-    public static void save(Spreadsheet sheet, String filename) throws IOException {
-
-        Set<String> used = sheet.allNonEmptyCells();
+    private static final char[] SEPARATORS = new char[1024];
+    static {
+        Arrays.fill(SEPARATORS, ';');
+    }
 
-        // if nothing used, create empty file
-        if (used.isEmpty()) {
-            try (BufferedWriter bw = new BufferedWriter(new FileWriter(filename))) {
-                bw.write("");
-            }
-            return;
+    public static void save(Spreadsheet sheet, String filename) throws IOException {
+        SheetIOEvent event = new SheetIOEvent();
+        event.begin();
+        long start = System.nanoTime();
+        try (BufferedWriter bw = new BufferedWriter(new FileWriter(filename), 1 << 16)) {
+            int cells = write(sheet.nonEmptyKeys(), sheet::getRaw, bw);
+            done(event, "save", filename, cells, start);
         }
+    }
 
-        int maxRow = 0;
-        int maxCol = 0;
+    /** Exports a frozen version; the sheet it came from can keep being edited meanwhile. */
+    public static void save(SheetSnapshot snapshot, String filename) throws IOException {
+        SheetIOEvent event = new SheetIOEvent();
+        event.begin();
+        long start = System.nanoTime();
+        try (BufferedWriter bw = new BufferedWriter(new FileWriter(filename), 1 << 16)) {
+            int cells = write(snapshot.nonEmptyKeys(), snapshot::getRaw, bw);
+            done(event, "save", filename, cells, start);
+        }
+    }
 
-        for (String ref : used) {
-            CellPos p = CellPos.parse(ref);
-            maxRow = Math.max(maxRow, p.row);
-            maxCol = Math.max(maxCol, p.col);
+    /**
+     * Saves the computed sheet: formulas are replaced by their current value, numbers
+     * and text are written as they are. A formula that cannot be evaluated throws.
+     */
+    public static void saveValues(Spreadsheet sheet, String filename) throws IOException {
+        SheetIOEvent event = new SheetIOEvent();
+        event.begin();
+        long start = System.nanoTime();
+        try (BufferedWriter bw = new BufferedWriter(new FileWriter(filename), 1 << 16)) {
+            int cells = write(sheet.nonEmptyKeys(), key -> {
+                String raw = sheet.getRaw(key);
+                return raw.startsWith("=") ? Cell.formatNumber(sheet.evaluateCell(key)) : raw;
+            }, bw);
+            done(event, "save", filename, cells, start);
         }
+    }
 
-        try (BufferedWriter bw = new BufferedWriter(new FileWriter(filename))) {
-            for (int row = 1; row <= maxRow; row++) {
-                StringBuilder line = new StringBuilder();
+    /** Writes the sheet as UTF-8 S2V at the channel's position. The channel is left open. */
+    public static void save(Spreadsheet sheet, FileChannel channel) throws IOException {
+        SheetIOEvent event = new SheetIOEvent();
+        event.begin();
+        long start = System.nanoTime();
+        Writer w = Channels.newWriter(channel, StandardCharsets.UTF_8.newEncoder(), 1 << 16);
+        int cells = write(sheet.nonEmptyKeys(), sheet::getRaw, w);
+        w.flush();
+        done(event, "save", null, cells, start);
+    }
 
-                for (int col = 0; col <= maxCol; col++) {
-                    String ref = CellPos.toRef(col, row);
+    // Only occupied cells are visited, in (row, col) order; the ';' padding for
+    // empty cells and empty rows is written from a constant buffer. Returns the cells written.
+    private static int write(long[] used, LongFunction<String> rawOf, Writer w) throws IOException {
+        // if nothing used, create empty file
+        if (used.length == 0) return 0;
 
+        Arrays.sort(used); // packed keys sort row-major
 
-                    String raw = sheet.getRaw(ref);
-                    if (raw == null) raw = "";
-                    if (raw.startsWith("=")) raw = raw.replace(';', ',');
+        int maxCol = 0;
+        for (long key : used) {
+            maxCol = Math.max(maxCol, CellPos.col(key));
+        }
+        int maxRow = CellPos.row(used[used.length - 1]);
+        String newLine = System.lineSeparator();
 
-                    line.append(raw);
+        int i = 0;
+        while (i < used.length && CellPos.row(used[i]) < 1) i++;
 
-                    if (col < maxCol) line.append(';');
-                }
+        for (int row = 1; row <= maxRow; row++) {
+            int col = 0; // separators written so far on this line
 
-                bw.write(line.toString());
-                bw.newLine();
+            for (; i < used.length && CellPos.row(used[i]) == row; i++) {
+                int c = CellPos.col(used[i]);
+                separators(w, c - col);
+                col = c;
+
+                String raw = rawOf.apply(used[i]);
+                if (raw.startsWith("=")) raw = raw.replace(';', ',');
+                w.write(raw);
             }
+
+            separators(w, maxCol - col);
+            w.write(newLine);
+        }
+        return used.length;
+    }
+
+    private static void separators(Writer w, int n) throws IOException {
+        while (n > 0) {
+            int k = Math.min(n, SEPARATORS.length);
+            w.write(SEPARATORS, 0, k);
+            n -= k;
         }
     }
 
     public static Spreadsheet load(String filename) throws IOException {
-        Spreadsheet sheet = new Spreadsheet();
+        return load(filename, new HashCellStore());
+    }
+
+    public static Spreadsheet load(String filename, CellStore store) throws IOException {
+        return load(filename, store, false);
+    }
+
+    /**
+     * Loads without recalculating: formulas are computed when first read (see
+     * {@link Spreadsheet#viewport}), so opening a huge sheet to look at a few cells
+     * only pays for those cells. A cycle is reported when a cell on it is read.
+     */
+    public static Spreadsheet loadLazy(String filename) throws IOException {
+        return load(filename, new HashCellStore(), true);
+    }
+
+    private static Spreadsheet load(String filename, CellStore store, boolean lazy) throws IOException {
+        SheetIOEvent event = new SheetIOEvent();
+        event.begin();
+        long start = System.nanoTime();
+        Spreadsheet sheet = new Spreadsheet(store);
+        int cells = 0;
 
         try (BufferedReader br = new BufferedReader(new FileReader(filename))) {
             String line;
@@ -56,19 +136,39 @@ public class SpreadsheetIO {
             while ((line = br.readLine()) != null) {
                 String[] parts = line.split(";", -1);
                 for (int col = 0; col < parts.length; col++) {
-                    String ref = CellPos.toRef(col, row);
                     String raw = parts[col];
 
                     if (raw == null) raw = "";
                     if (raw.startsWith("=")) raw = raw.replace(',', ';');
 
-                    if (!raw.isEmpty()) sheet.setCell(ref, raw);
+                    if (!raw.isEmpty()) {
+                        sheet.putRaw(CellPos.pack(col, row), raw);
+                        cells++;
+                    }
                 }
                 row++;
             }
         }
 
-        sheet.recomputeAll();
+        // cells were stored without evaluation; one cycle check + one ordered recalc
+        if (lazy) sheet.invalidateAll();
+        else sheet.recomputeAll();
+        done(event, "load", filename, cells, start);
         return sheet;
     }
+
+    private static void done(SheetIOEvent event, String operation, String file, int cells, long start) {
+        RecalcMetrics m = RecalcMetrics.active;
+        if (m != null) {
+            if (operation.equals("load")) m.loaded(cells, System.nanoTime() - start);
+            else m.saved(cells, System.nanoTime() - start);
+        }
+
+        if (event.shouldCommit()) {
+            event.operation = operation;
+            event.file = file;
+            event.cells = cells;
+            event.commit();
+        }
+    }
 }
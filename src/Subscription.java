@@ -0,0 +1,25 @@
+/** Interest in a cell or range; see {@link Spreadsheet#subscribe}. */
+public final class Subscription {
+
+    final int col1, row1, col2, row2;
+    final ChangeListener listener;
+    private final SubscriptionIndex index;
+
+    Subscription(int col1, int row1, int col2, int row2, ChangeListener listener, SubscriptionIndex index) {
+        this.col1 = col1;
+        this.row1 = row1;
+        this.col2 = col2;
+        this.row2 = row2;
+        this.listener = listener;
+        this.index = index;
+    }
+
+    boolean contains(int col, int row) {
+        return col >= col1 && col <= col2 && row >= row1 && row <= row2;
+    }
+
+    /** Stops delivery. Changes from a recalculation already in progress may still arrive. */
+    public void cancel() {
+        index.remove(this);
+    }
+}
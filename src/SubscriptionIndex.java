@@ -0,0 +1,89 @@
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Subscriptions indexed by column (like range edges in {@link DependencyGraph}), plus
+ * the pre-edit values of watched cells captured during the current recalculation.
+ * Only touched by the thread editing the sheet.
+ */
+class SubscriptionIndex {
+
+    private final LongMap<List<Subscription>> byCol = new LongMap<>();
+    private final LongMap<double[]> pending = new LongMap<>(); // key -> {old value}
+    private int size;
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    void add(Subscription s) {
+        for (int col = s.col1; col <= s.col2; col++) {
+            List<Subscription> l = byCol.get(col);
+            if (l == null) byCol.put(col, l = new ArrayList<>(2));
+            l.add(s);
+        }
+        size++;
+    }
+
+    void remove(Subscription s) {
+        boolean removed = false;
+        for (int col = s.col1; col <= s.col2; col++) {
+            List<Subscription> l = byCol.get(col);
+            if (l == null || !l.remove(s)) continue;
+            removed = true;
+            if (l.isEmpty()) byCol.remove(col);
+        }
+        if (removed) size--;
+    }
+
+    private boolean watched(long key) {
+        List<Subscription> l = byCol.get(CellPos.col(key));
+        if (l == null) return false;
+        int row = CellPos.row(key);
+        for (Subscription s : l) {
+            if (s.row1 <= row && row <= s.row2) return true;
+        }
+        return false;
+    }
+
+    /** Remembers the value key had before the edit; later calls for the same key are ignored. */
+    void beforeChange(long key, double oldValue) {
+        if (size == 0 || !watched(key) || pending.containsKey(key)) return;
+        pending.put(key, new double[]{oldValue});
+    }
+
+    void discard() {
+        pending.clear();
+    }
+
+    /** Hands every subscription the captured cells whose value is now different, in one call. */
+    void deliver(Spreadsheet sheet) {
+        if (pending.isEmpty()) return;
+
+        Map<Subscription, List<CellChange>> batches = new IdentityHashMap<>();
+        pending.forEach((key, old) -> {
+            double now = sheet.currentValue(key);
+            if (Double.compare(old[0], now) == 0) return;
+
+            CellChange change = new CellChange(key, old[0], now);
+            int col = CellPos.col(key), row = CellPos.row(key);
+            List<Subscription> l = byCol.get(col);
+            if (l == null) return;
+            for (Subscription s : l) {
+                if (s.contains(col, row)) batches.computeIfAbsent(s, x -> new ArrayList<>()).add(change);
+            }
+        });
+        pending.clear();
+
+        for (Map.Entry<Subscription, List<CellChange>> e : batches.entrySet()) {
+            e.getValue().sort((a, b) -> Long.compare(a.key, b.key)); // row-major
+            try {
+                e.getKey().listener.onChanges(e.getValue());
+            } catch (RuntimeException ex) {
+                // a failing listener must not undo the edit or starve the others
+            }
+        }
+    }
+}
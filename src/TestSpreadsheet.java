@@ -1,4 +1,38 @@
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
 
 public class TestSpreadsheet {
 
@@ -102,6 +136,1086 @@ public class TestSpreadsheet {
                 pass("Indirect cycle throws ✔");
             }
 
+            header("10) COMPILED FORMULAS");
+            Spreadsheet f = new Spreadsheet();
+            f.setCell("A1", "=2*MIN(-5;1)");                  // function result used directly, not re-parsed
+            assertEq("A1", -10.0, f.evaluateCell("A1"));
+            f.setCell("A2", "=PROMEDIO(1;2)/3");
+            assertClose("A2", 0.5, f.evaluateCell("A2"), 1e-12);
+            try {
+                f.setCell("A1", "=1+*2");
+                fail("Bad formula should throw");
+            } catch (IllegalArgumentException e) {
+                assertEq("A1 kept after bad formula", -10.0, f.evaluateCell("A1"));
+            }
+
+            header("11) DEPENDENTS RECOMPUTED ON EDIT");
+            Spreadsheet g = new Spreadsheet();
+            g.setCell("A1", "1");
+            g.setCell("B1", "=A1*2");
+            g.setCell("C1", "=SUMA(A1:B1)+B1");
+            g.setCell("A1", "5");                               // pushes through B1 then C1
+            assertEq("B1 cached", 10.0, g.getCell("B1").getCachedNumber());
+            assertEq("C1 cached", 25.0, g.getCell("C1").getCachedNumber());
+            g.setCell("B1", "7");                               // formula replaced, C1 still follows
+            assertEq("C1 cached after B1=7", 19.0, g.getCell("C1").getCachedNumber());
+
+            header("12) SHARED PRECEDENTS EVALUATED ONCE");
+            Spreadsheet m = new Spreadsheet();
+            m.setCell("A1", "1");
+            for (int i = 2; i <= 60; i++) {
+                m.setCell("A" + i, "=A" + (i - 1) + "+A" + (i - 1)); // 2^59 paths without memoization
+            }
+            assertEq("A60", Math.pow(2, 59), m.evaluateCell("A60"));
+            m.setCell("A1", "2");
+            assertEq("A60 after A1=2", Math.pow(2, 60), m.evaluateCell("A60"));
+
+            header("13) PARALLEL RECALCULATION");
+            Spreadsheet par = new Spreadsheet();
+            for (int i = 1; i <= 500; i++) {
+                par.setCell("A" + i, String.valueOf(i));
+                par.setCell("B" + i, "=A" + i + "*2");
+                par.setCell("C" + i, "=B" + i + "+SUMA(A1:A" + i + ")");
+            }
+            par.setCell("D1", "=SUMA(C1:C500)");
+            double sequential = par.evaluateCell("D1");
+            ForkJoinPool pool = new ForkJoinPool(4);
+            par.setRecalcPool(pool);
+            par.recomputeAll();
+            assertEq("D1 parallel == sequential", sequential, par.evaluateCell("D1"));
+            assertEq("C500 parallel", 1000.0 + 125250.0, par.evaluateCell("C500"));
+            pool.shutdown();
+
+            header("14) PACKED CELL KEYS");
+            Spreadsheet k = new Spreadsheet();
+            k.setCell(" zz100000 ", "4");
+            k.setCell("a1", "=ZZ100000*2");
+            assertEq("A1 via packed refs", 8.0, k.evaluateCell("A1"));
+            if (k.getRaw("ZZ100000").equals("4")) pass("RAW of trimmed lower-case ref ✔");
+            else fail("RAW of trimmed lower-case ref ✗ got " + k.getRaw("ZZ100000"));
+            try {
+                k.setCell("1A", "3");
+                fail("Bad ref should throw");
+            } catch (IllegalArgumentException e) {
+                pass("Bad ref rejected ✔");
+            }
+            for (String huge : new String[]{"A4294967297", "A2147483648", "ZZZZZZZ1"}) {
+                try {
+                    k.setCell(huge, "3");
+                    fail("Out-of-range ref " + huge + " accepted, A1 = " + k.evaluateCell("A1"));
+                } catch (IllegalArgumentException e) {
+                    pass("Out-of-range ref " + huge + " rejected ✔");
+                }
+            }
+            assertEq("A1 not aliased", 8.0, k.evaluateCell("A1"));
+            if (CellPos.parseKey("A2147483647") == CellPos.pack(0, Integer.MAX_VALUE)) pass("Largest row still parses ✔");
+            else fail("Largest row ✗");
+
+            header("15) TILED COLUMNAR STORE");
+            Spreadsheet tiled = new Spreadsheet(new TiledCellStore());
+            for (int i = 1; i <= 600; i++) {                    // spans three tiles down column A
+                tiled.setCell("A" + i, String.valueOf(i));
+            }
+            tiled.setCell("BM2", "2.50");                       // second tile column, raw kept as typed
+            tiled.setCell("B1", "=SUMA(A1:A600)+BM2");
+            tiled.setCell("B2", "=PROMEDIO(A250:A260)");
+            tiled.setCell("A300", "note");                      // text inside the range
+            assertEq("B1 tiled", 180300.0 + 2.5 - 300.0, tiled.evaluateCell("B1"));
+            assertEq("B2 tiled", 255.0, tiled.evaluateCell("B2"));
+            if (tiled.getRaw("BM2").equals("2.50") && tiled.getRaw("A7").equals("7")) pass("RAW round-trips ✔");
+            else fail("RAW round-trips ✗ got " + tiled.getRaw("BM2") + " / " + tiled.getRaw("A7"));
+            tiled.setCell("A600", "");
+            assertEq("B1 after clearing A600", 180300.0 + 2.5 - 900.0, tiled.evaluateCell("B1"));
+
+            header("16) RANGE AGGREGATE INDEX");
+            Spreadsheet ix = new Spreadsheet();
+            ix.setAggregateIndexEnabled(true);
+            for (int i = 1; i <= 20000; i++) {
+                ix.setCell("A" + i, String.valueOf(i % 100));
+            }
+            ix.setCell("A5000", "text");                        // skipped by PROMEDIO/MIN/MAX
+            ix.setCell("B1", "=SUMA(A1:A20000)");
+            ix.setCell("B2", "=MAX(A1:A20000)+MIN(A1:A20000)");
+            ix.setCell("B3", "=PROMEDIO(A1:A200)");
+            assertEq("B1 indexed", 990000.0, ix.evaluateCell("B1"));
+            assertEq("B2 indexed", 99.0, ix.evaluateCell("B2"));
+            assertClose("B3 indexed", 49.5, ix.evaluateCell("B3"), 1e-12);
+            ix.setCell("A20", "1000");                          // index updated on edit
+            assertEq("B1 after A20=1000", 990980.0, ix.evaluateCell("B1"));
+            assertEq("B2 after A20=1000", 1000.0, ix.evaluateCell("B2"));
+            ix.setCell("A30", "=A20*2");                        // formula in range -> scanned instead
+            assertEq("B1 with formula in range", 992950.0, ix.evaluateCell("B1"));
+            AggregateIndex sparseIx = new AggregateIndex();
+            sparseIx.update(0, 1_000_000, CellType.NUMBER, 7.0);
+            sparseIx.update(0, 5, CellType.NUMBER, -2.0);
+            RangeStats far = sparseIx.query(0, 1, 0, 2_000_000);
+            if (far != null && far.getSum() == 5.0 && far.getCount() == 2 && far.getMin() == -2.0)
+                pass("Sparse column answered ✔");
+            else fail("Sparse column ✗");
+            if (sparseIx.bytes() < 1024) pass("Sparse column stays small (" + sparseIx.bytes() + " bytes) ✔");
+            else fail("Sparse column footprint ✗ " + sparseIx.bytes());
+            sparseIx.update(0, 1_000_000, CellType.EMPTY, 0.0);
+            sparseIx.update(0, 5, CellType.TEXT, 0.0);
+            if (sparseIx.query(0, 1, 0, 2_000_000).getCount() == 0 && sparseIx.bytes() == 0) pass("Cleared cells release chunks ✔");
+            else fail("Cleared chunks ✗ " + sparseIx.bytes());
+            java.util.Random ixRandom = new java.util.Random(7);
+            double[] ixRows = new double[5000];
+            for (int i = 0; i < 3000; i++) {
+                int r = ixRandom.nextInt(ixRows.length);
+                ixRows[r] = ixRandom.nextInt(1000) - 500;
+                sparseIx.update(0, r, CellType.NUMBER, ixRows[r]);
+            }
+            boolean chunksMatch = true;
+            for (int q = 0; q < 200; q++) {
+                int a = ixRandom.nextInt(ixRows.length), b = a + ixRandom.nextInt(ixRows.length - a);
+                double expected = 0;
+                for (int r = a; r <= b; r++) expected += ixRows[r];
+                if (sparseIx.query(0, a, 0, b).getSum() != expected) chunksMatch = false;
+            }
+            if (chunksMatch) pass("Queries across sparse and tree chunks ✔");
+            else fail("Queries across chunks ✗");
+            sparseIx.update(0, 2_000_000, CellType.FORMULA, 0.0);
+            if (sparseIx.query(0, 0, 0, 1_999_999) != null && sparseIx.query(0, 0, 0, 2_000_000) == null)
+                pass("Formula in a far chunk blocks only ranges reaching it ✔");
+            else fail("Far formula chunk ✗");
+            for (int r = 0; r < ixRows.length; r++) sparseIx.update(0, r, CellType.EMPTY, 0.0);
+            sparseIx.update(0, 2_000_000, CellType.EMPTY, 0.0);
+            if (sparseIx.bytes() == 0) pass("Emptied tree chunks released ✔");
+            else fail("Emptied tree chunks ✗ " + sparseIx.bytes());
+
+            header("17) FUNCTION REGISTRY");
+            Spreadsheet fr = new Spreadsheet();
+            fr.setCell("A1", "2"); fr.setCell("A2", "-3"); fr.setCell("A3", "x"); fr.setCell("A4", "5");
+            fr.setCell("B1", "=COUNT(A1:A5)");                  // text and empty skipped
+            fr.setCell("B2", "=PRODUCT(A1:A4;2)");
+            fr.setCell("B3", "=SUMIF(A1:A4;\">0\")");
+            fr.setCell("B4", "=SUMIF(A1:A4;A2;\"<>5\")");
+            assertEq("COUNT", 3.0, fr.evaluateCell("B1"));
+            assertEq("PRODUCT", -60.0, fr.evaluateCell("B2"));
+            assertEq("SUMIF >0", 7.0, fr.evaluateCell("B3"));
+            assertEq("SUMIF <>5", -4.0, fr.evaluateCell("B4"));
+            Functions.register("DOBLE", b -> new Accumulator() {
+                private double sum;
+                public void add(double v) { sum += v; }
+                public double result() { return 2 * sum; }
+            });
+            fr.setCell("B5", "=DOBLE(A1:A2)+1");
+            assertEq("registered DOBLE", -1.0, fr.evaluateCell("B5"));
+            Functions.register("LARGO", new AggregateFunction() {   // values + length of the quoted text
+                public Object bind(String name, List<String> textArgs) { return textArgs.get(0).length(); }
+                public Accumulator newAccumulator(Object binding) {
+                    return new Accumulator() {
+                        private double sum = (Integer) binding;
+                        public void add(double v) { sum += v; }
+                        public double result() { return sum; }
+                    };
+                }
+            });
+            fr.setCell("B7", "=LARGO(A1; \"foo bar\") + 1");
+            assertEq("quoted text keeps its space", 10.0, fr.evaluateCell("B7"));
+            fr.setCell("B8", "=LARGO(\"a;b)\";A1)*2");
+            assertEq("quoted ';' and ')' stay in the text", 12.0, fr.evaluateCell("B8"));
+            try {
+                fr.setCell("B6", "=SUMA(A1;\"x\")");
+                fail("Text argument to SUMA should throw");
+            } catch (IllegalArgumentException e) {
+                pass("Text argument rejected at compile time ✔");
+            }
+
+            header("18) BULK LOAD");
+            String chainFile = "bulk_chain.s2v";
+            try (PrintWriter pw = new PrintWriter(chainFile)) {
+                for (int i = 1; i < 20000; i++) pw.println("=A" + (i + 1) + "+1");  // each row reads the next
+                pw.println("1");
+            }
+            Spreadsheet bulk = SpreadsheetIO.load(chainFile);
+            assertEq("A1 of forward chain", 20000.0, bulk.evaluateCell("A1"));
+            try (PrintWriter pw = new PrintWriter(chainFile)) {
+                pw.println("=B1;=A1");
+            }
+            try {
+                SpreadsheetIO.load(chainFile);
+                fail("Cyclic file should not load");
+            } catch (CircularDependencyException e) {
+                pass("Cyclic file rejected ✔");
+            }
+            new File(chainFile).delete();
+
+            header("19) MEMORY-MAPPED PARALLEL LOADER");
+            String bigFile = "mapped_load.s2v";
+            try (PrintWriter pw = new PrintWriter(bigFile)) {
+                for (int i = 1; i <= 50000; i++) {                 // > 1 MB, so several chunks
+                    pw.print(i + ";" + i + ".25; t" + i + ";=SUMA(A" + i + ",B" + i + ");2.50;-0\r\n");
+                }
+                pw.print("7;;=D50000+A50001");                    // last line without newline
+            }
+            Spreadsheet viaReader = SpreadsheetIO.load(bigFile);
+            Spreadsheet viaMap = S2VMappedReader.load(bigFile);
+            assertEq("mapped D49999", viaReader.evaluateCell("D49999"), viaMap.evaluateCell("D49999"));
+            assertEq("mapped C50001", viaReader.evaluateCell("C50001"), viaMap.evaluateCell("C50001"));
+            boolean sameRaw = true;
+            for (String ref : new String[]{"A1", "B2", "C3", "D4", "E5", "F6", "A40000", "C50001", "B50001"}) {
+                sameRaw &= viaReader.getRaw(ref).equals(viaMap.getRaw(ref));
+            }
+            if (sameRaw && viaMap.allNonEmptyCells().equals(viaReader.allNonEmptyCells())) pass("mapped RAW and cells match ✔");
+            else fail("mapped RAW and cells match ✗");
+            new File(bigFile).delete();
+            String emptyFile = "mapped_empty.s2v";
+            new File(emptyFile).delete();
+            new File(emptyFile).createNewFile();
+            if (S2VMappedReader.load(emptyFile).allNonEmptyCells().equals(SpreadsheetIO.load(emptyFile).allNonEmptyCells()))
+                pass("mapped empty file ✔");
+            else fail("mapped empty file ✗");
+            new File(emptyFile).delete();
+
+            header("20) SPARSE STREAMING SAVE");
+            Spreadsheet sparse = new Spreadsheet();
+            sparse.setCell("A1", "1");
+            sparse.setCell("C2", "=SUMA(A1;A1)");
+            sparse.setCell("B4", "hi");
+            String sparseFile = "sparse.s2v";
+            String channelFile = "sparse_channel.s2v";
+            SpreadsheetIO.save(sparse, sparseFile);
+            try (FileChannel ch = FileChannel.open(Paths.get(channelFile),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                SpreadsheetIO.save(sparse, ch);
+            }
+            String nl = System.lineSeparator();
+            String expected = "1;;" + nl + ";;=SUMA(A1,A1)" + nl + ";;" + nl + ";hi;" + nl;
+            String written = new String(Files.readAllBytes(Paths.get(sparseFile)), StandardCharsets.UTF_8);
+            String viaChannel = new String(Files.readAllBytes(Paths.get(channelFile)), StandardCharsets.UTF_8);
+            if (written.equals(expected)) pass("sparse file layout ✔");
+            else fail("sparse file layout ✗ got " + written);
+            if (viaChannel.equals(expected)) pass("FileChannel save ✔");
+            else fail("FileChannel save ✗ got " + viaChannel);
+            new File(sparseFile).delete();
+            new File(channelFile).delete();
+
+            header("21) BINARY SNAPSHOT");
+            Spreadsheet snap = new Spreadsheet();
+            snap.setCell("A1", "2.50");
+            snap.setCell("A2", "4");
+            snap.setCell("A3", "label");
+            snap.setCell("B1", "=SUMIF(A1:A3;\">3\")*MAX(A1;-1)+PROMEDIO(A1:A2)");
+            snap.setCell("B2", "=B1/2");
+            String snapFile = "sheet.s2vb";
+            BinarySnapshotIO.save(snap, snapFile);
+            Spreadsheet restored = BinarySnapshotIO.load(snapFile);
+            if (restored.getCell("B2").isValid()) pass("values restored without recalculation ✔");
+            else fail("values restored without recalculation ✗");
+            assertClose("restored B1", snap.evaluateCell("B1"), restored.evaluateCell("B1"), 0.0);
+            assertClose("restored B2", snap.evaluateCell("B2"), restored.evaluateCell("B2"), 0.0);
+            if (restored.getRaw("A1").equals("2.50") && restored.getRaw("A3").equals("label")
+                    && restored.getRaw("B1").equals(snap.getRaw("B1"))) pass("restored RAW ✔");
+            else fail("restored RAW ✗");
+            Spreadsheet windowed = BinarySnapshotIO.load(snapFile, new HashCellStore(), 16);
+            if (windowed.getRaw("B1").equals(snap.getRaw("B1"))
+                    && windowed.evaluateCell("B2") == snap.evaluateCell("B2")
+                    && windowed.getRaw("A3").equals("label")) pass("records spanning mapped windows ✔");
+            else fail("records spanning mapped windows ✗");
+            restored.setCell("A2", "10");                       // restored formulas are live
+            assertClose("restored B2 after edit", (10 * 2.5 + 6.25) / 2, restored.evaluateCell("B2"), 1e-12);
+            SpreadsheetIO.save(snap, snapFile);                 // S2V text, not a snapshot
+            try {
+                BinarySnapshotIO.load(snapFile);
+                fail("Non-snapshot file should throw");
+            } catch (IOException e) {
+                pass("Non-snapshot file rejected ✔");
+            }
+            new File(snapFile).delete();
+
+            // ==========================================================
+            // 22) EDIT JOURNAL
+            // ==========================================================
+            header("22) EDIT JOURNAL");
+
+            String jSnap = "journal_snapshot.s2v";
+            String jLog = "journal_test.log";
+            new File(jSnap).delete();
+            new File(jLog).delete();
+
+            Spreadsheet live = new Spreadsheet();
+            try (EditJournal journal = new EditJournal(jLog, EditJournal.FsyncPolicy.ALWAYS, 0)) {
+                journal.setCell(live, "A1", "4");
+                journal.setCell(live, "A2", "6");
+                journal.setCell(live, "B1", "=SUMA(A1:A2)*2");
+                journal.setCell(live, "C1", "texto");
+                try {
+                    journal.setCell(live, "A1", "=B1");
+                    fail("Cyclic edit should be rejected");
+                } catch (CircularDependencyException e) {
+                    pass("Rejected edit not journaled ✔");
+                }
+            }
+
+            Spreadsheet recovered = EditJournal.recover(jSnap, jLog);
+            assertEq("Replayed B1", 20.0, recovered.evaluateCell("B1"));
+            if ("texto".equals(recovered.getRaw("C1"))) pass("Replayed text ✔");
+            else fail("Replayed text ✗ " + recovered.getRaw("C1"));
+
+            // a torn record at the tail is ignored on replay and dropped on reopen
+            try (FileChannel ch = FileChannel.open(Paths.get(jLog), StandardOpenOption.APPEND)) {
+                ch.write(ByteBuffer.wrap(new byte[]{0, 0, 0, 40, 1, 2, 3}));
+            }
+            assertEq("Torn tail skipped", 20.0, EditJournal.recover(jSnap, jLog).evaluateCell("B1"));
+
+            try (EditJournal journal = new EditJournal(jLog, EditJournal.FsyncPolicy.PERIODIC, 1000)) {
+                journal.setCell(live, "A2", "16");
+            }
+            assertEq("Appended after torn tail", 40.0, EditJournal.recover(jSnap, jLog).evaluateCell("B1"));
+
+            try (EditJournal journal = new EditJournal(jLog, EditJournal.FsyncPolicy.NEVER, 0)) {
+                journal.autoCompact(live, jSnap, 2);
+                journal.setCell(live, "A1", "24");
+                journal.setCell(live, "D1", "=B1+1");
+                journal.setCell(live, "A2", "1");
+            }
+            if (new File(jSnap).exists()) pass("Auto-compaction wrote snapshot ✔");
+            else fail("Auto-compaction wrote no snapshot");
+            Spreadsheet compacted = EditJournal.recover(jSnap, jLog);
+            assertEq("Snapshot + journal D1", 51.0, compacted.evaluateCell("D1"));
+            if (SpreadsheetIO.load(jSnap).getRaw("A2").equals("16")) pass("Journal holds edits after compaction ✔");
+            else fail("Snapshot should predate last edit");
+
+            // a batch torn in the middle is dropped whole, as setCells would have rolled it back
+            long beforeBatch = Files.size(Paths.get(jLog));
+            try (EditJournal journal = new EditJournal(jLog, EditJournal.FsyncPolicy.ALWAYS, 0)) {
+                Map<String, String> journaled = new LinkedHashMap<>();
+                journaled.put("F1", "1");
+                journaled.put("F2", "2");
+                journaled.put("F3", "=F1+F2");
+                journal.setCells(live, journaled);
+            }
+            long afterBatch = Files.size(Paths.get(jLog));
+            if ("=F1+F2".equals(EditJournal.recover(jSnap, jLog).getRaw("F3"))) pass("Batch replayed ✔");
+            else fail("Batch not replayed ✗");
+            try (FileChannel ch = FileChannel.open(Paths.get(jLog), StandardOpenOption.WRITE)) {
+                ch.truncate(beforeBatch + (afterBatch - beforeBatch) / 2);
+            }
+            Spreadsheet torn = EditJournal.recover(jSnap, jLog);
+            if (torn.getRaw("F1").isEmpty() && torn.getRaw("F3").isEmpty()) pass("Torn batch dropped whole ✔");
+            else fail("Half a batch replayed ✗ F1=" + torn.getRaw("F1"));
+
+            // setCell only rolls back the edited cell, so a dependent can be left unevaluable
+            try (EditJournal journal = new EditJournal(jLog, EditJournal.FsyncPolicy.ALWAYS, 0)) {
+                journal.setCell(live, "G1", "3");
+                journal.setCell(live, "H1", "=MIN(G1:G2)");
+                journal.setCell(live, "H2", "=H1+1");
+                journal.setCell(live, "G1", "");
+            }
+            Spreadsheet unevaluable = EditJournal.recover(jSnap, jLog);
+            try {
+                unevaluable.evaluateCell("H2");
+                fail("Unevaluable dependent should fail when read");
+            } catch (RuntimeException e) {
+                if ("=H1+1".equals(unevaluable.getRaw("H2"))) pass("Recovered past an unevaluable dependent ✔");
+                else fail("Unevaluable dependent ✗ " + unevaluable.getRaw("H2"));
+            }
+            assertEq("Rest of the recovered sheet", 51.0, unevaluable.evaluateCell("D1"));
+
+            RecalcMetrics recoverMetrics = RecalcMetrics.enable();
+            Spreadsheet counted = EditJournal.recover(jSnap, jLog);
+            counted.evaluateCell("D1");
+            long recoverRecalcs = recoverMetrics.recalcNanos().count();
+            RecalcMetrics.disable();
+            assertEq("Recovery leaves recalculation to reads", 0, recoverRecalcs);
+
+            // an edit that setCell returned for is in the file even if the JVM dies before close()
+            for (EditJournal.FsyncPolicy policy : new EditJournal.FsyncPolicy[]{
+                    EditJournal.FsyncPolicy.NEVER, EditJournal.FsyncPolicy.PERIODIC}) {
+                EditJournal open = new EditJournal(jLog, policy, 60_000);
+                open.setCell(live, "E1", policy.name());
+                if (policy.name().equals(EditJournal.recover(jSnap, jLog).getRaw("E1"))) {
+                    pass(policy + ": returned edit already in the journal file ✔");
+                } else {
+                    fail(policy + ": returned edit still buffered in the process ✗");
+                }
+                open.close();
+            }
+
+            new File(jSnap).delete();
+            new File(jLog).delete();
+
+            // ==========================================================
+            // 23) BATCH UPDATES
+            // ==========================================================
+            header("23) BATCH UPDATES");
+
+            Spreadsheet batch = new Spreadsheet();
+            Map<String, String> edits = new LinkedHashMap<>();
+            edits.put("B2", "=B1*2");
+            edits.put("B1", "=SUMA(A1:A3)");
+            edits.put("A1", "1");
+            edits.put("A2", "2");
+            edits.put("A3", "3");
+            batch.setCells(edits);
+            assertEq("Batch B1", 6.0, batch.evaluateCell("B1"));
+            assertEq("Batch B2 (reads B1 from same batch)", 12.0, batch.evaluateCell("B2"));
+
+            edits.clear();
+            edits.put("A1", "100");
+            edits.put("C1", "=C2+1");
+            edits.put("C2", "=C1+1");
+            try {
+                batch.setCells(edits);
+                fail("Cyclic batch should throw");
+            } catch (CircularDependencyException e) {
+                pass("Cyclic batch rejected ✔");
+            }
+            assertEq("Rolled back A1", 1.0, batch.evaluateCell("A1"));
+            assertEq("Rolled back B2", 12.0, batch.evaluateCell("B2"));
+            if (batch.getRaw("C1").isEmpty() && batch.getRaw("C2").isEmpty()) pass("Rolled back new cells ✔");
+            else fail("Rolled back new cells ✗");
+
+            edits.clear();
+            edits.put("A2", "50");
+            edits.put("D1", "=A1+");
+            try {
+                batch.setCells(edits);
+                fail("Bad formula in batch should throw");
+            } catch (IllegalArgumentException e) {
+                pass("Bad formula rejects batch ✔");
+            }
+            assertEq("Untouched A2", 2.0, batch.evaluateCell("A2"));
+
+            Spreadsheet tiledBatch = new Spreadsheet(new TiledCellStore());
+            tiledBatch.setCell("A1", "7");
+            tiledBatch.setCell("B1", "=A1*3");
+            edits.clear();
+            edits.put("A1", "=B1");
+            try {
+                tiledBatch.setCells(edits);
+                fail("Tiled cyclic batch should throw");
+            } catch (CircularDependencyException e) {
+                assertEq("Tiled rollback B1", 21.0, tiledBatch.evaluateCell("B1"));
+            }
+
+            edits.clear();
+            for (int r = 1; r <= 10_000; r++) edits.put("E" + r, Integer.toString(r));
+            edits.put("F1", "=SUMA(E1:E10000)");
+            batch.setCells(edits);
+            assertEq("10k-cell batch", 50_005_000.0, batch.evaluateCell("F1"));
+            String beforeDup = batch.getRaw("A1");
+            edits.clear();
+            edits.put("a1", "1");
+            edits.put("A1", "2");
+            try {
+                batch.setCells(edits);
+                fail("Two refs to one cell in a batch should throw");
+            } catch (IllegalArgumentException e) {
+                if (batch.getRaw("A1").equals(beforeDup)) pass("Duplicate cell in batch rejected ✔");
+                else fail("Duplicate cell in batch ✗");
+            }
+
+            // ==========================================================
+            // 24) CYCLE PATHS
+            // ==========================================================
+            header("24) CYCLE PATHS");
+
+            Spreadsheet cyc = new Spreadsheet();
+            cyc.setCell("A1", "=B1");
+            cyc.setCell("B1", "=C1");
+            cyc.setCell("C1", "5");
+            try {
+                cyc.setCell("C1", "=A1");
+                fail("Indirect cycle should throw");
+            } catch (CircularDependencyException e) {
+                if (e.getCycle().equals(Arrays.asList("C1", "B1", "A1", "C1"))) pass("Cycle path " + e.getCycle() + " ✔");
+                else fail("Cycle path ✗ " + e.getCycle());
+                if (e.getStackTrace().length == 0) pass("No stack trace captured ✔");
+                else fail("Cycle exception captured a stack trace");
+            }
+            assertEq("Rejected edit leaves C1", 5.0, cyc.evaluateCell("C1"));
+            assertEq("Rejected edit leaves A1", 5.0, cyc.evaluateCell("A1"));
+
+            try {
+                cyc.setCell("A5", "=A5+1");
+                fail("Self reference should throw");
+            } catch (CircularDependencyException e) {
+                if (e.getCycle().equals(Arrays.asList("A5", "A5"))) pass("Self reference path ✔");
+                else fail("Self reference path ✗ " + e.getCycle());
+            }
+
+            cyc.setCell("D3", "=D1*2");
+            try {
+                cyc.setCell("D1", "=SUMA(D2:D5)");
+                fail("Cycle through a range should throw");
+            } catch (CircularDependencyException e) {
+                if (e.getCycle().equals(Arrays.asList("D1", "D3", "D1"))) pass("Range cycle path ✔");
+                else fail("Range cycle path ✗ " + e.getCycle());
+            }
+
+            edits.clear();
+            edits.put("E1", "=E2+1");
+            edits.put("E2", "=E1+1");
+            try {
+                cyc.setCells(edits);
+                fail("Cyclic batch should throw");
+            } catch (CircularDependencyException e) {
+                if (e.getCycle().size() == 3) pass("Batch cycle path " + e.getCycle() + " ✔");
+                else fail("Batch cycle path ✗ " + e.getCycle());
+            }
+
+            cyc.setCell("F1", "7");
+            cyc.setCell("F2", "=F1*2");
+            try {
+                cyc.setCell("F1", "=MIN(H1:H3)");
+                fail("Formula that cannot be evaluated accepted by setCell");
+            } catch (IllegalArgumentException e) {
+                if (cyc.getRaw("F1").equals("7")) pass("Failed setCell restores the old content ✔");
+                else fail("Failed setCell left F1 = " + cyc.getRaw("F1"));
+            }
+            assertEq("Dependent of the rolled-back cell", 14.0, cyc.evaluateCell("F2"));
+
+            Spreadsheet deep = new Spreadsheet();
+            deep.setCell("A1", "1");
+            for (int r = 2; r <= 20_000; r++) deep.setCell("A" + r, "=A" + (r - 1) + "+1");
+            deep.setCell("A1", "10");
+            assertEq("Deep chain after head edit", 20_009.0, deep.evaluateCell("A20000"));
+
+            // ==========================================================
+            // 25) CONCURRENT READS
+            // ==========================================================
+            header("25) CONCURRENT READS");
+
+            ConcurrentSpreadsheet shared = new ConcurrentSpreadsheet();
+            shared.setCell("A1", "0");
+            shared.setCell("B1", "=A1*2");
+            shared.setCell("C1", "=B1+A1");
+            shared.setCell("D1", "hola");
+            for (int r = 1; r <= 2000; r++) shared.setCell("Z" + r, Integer.toString(r));
+
+            int writes = 3000;
+            AtomicInteger inconsistent = new AtomicInteger();
+            AtomicInteger reads = new AtomicInteger();
+            Thread writer = new Thread(() -> {
+                for (int i = 1; i <= writes; i++) shared.setCell("A1", Integer.toString(i));
+            });
+            Thread[] readers = new Thread[4];
+            for (int i = 0; i < readers.length; i++) {
+                readers[i] = new Thread(() -> {
+                    while (writer.isAlive()) {
+                        SheetSnapshot v = shared.read();
+                        double a = v.evaluateCell("A1");
+                        if (v.evaluateCell("C1") != a * 3 || v.evaluateCell("Z2000") != 2000.0) {
+                            inconsistent.incrementAndGet();
+                        }
+                        reads.incrementAndGet();
+                    }
+                });
+            }
+            writer.start();
+            for (Thread r : readers) r.start();
+            writer.join();
+            for (Thread r : readers) r.join();
+
+            if (inconsistent.get() == 0) pass("Readers saw only consistent views (" + reads.get() + " reads) ✔");
+            else fail("Inconsistent views: " + inconsistent.get());
+            assertEq("Concurrent final C1", writes * 3.0, shared.evaluateCell("C1"));
+            if ("hola".equals(shared.getRaw("D1")) && "=B1+A1".equals(shared.getRaw("C1"))) pass("View raw text ✔");
+            else fail("View raw text ✗");
+
+            SheetSnapshot before = shared.read();
+            try {
+                shared.setCell("A1", "=C1");
+                fail("Concurrent cyclic edit should throw");
+            } catch (CircularDependencyException e) {
+                if (shared.read() == before) pass("Rejected edit publishes nothing ✔");
+                else fail("Rejected edit published a view");
+            }
+            shared.setCell("D1", "");
+            if (!shared.allNonEmptyCells().contains("D1") && before.getRaw("D1").equals("hola")) pass("Old views stay unchanged ✔");
+            else fail("Cleared cell / old view ✗");
+
+            // ==========================================================
+            // 26) SNAPSHOTS
+            // ==========================================================
+            header("26) SNAPSHOTS");
+
+            Spreadsheet versioned = new Spreadsheet();
+            for (int r = 1; r <= 5000; r++) versioned.setCell("A" + r, Integer.toString(r));
+            versioned.setCell("B1", "=SUMA(A1:A5000)");
+            versioned.setCell("B2", "nota");
+
+            SheetSnapshot v1 = versioned.snapshot();
+            versioned.setCell("A1", "1001");
+            versioned.setCell("B2", "");
+            SheetSnapshot v2 = versioned.snapshot();
+
+            assertEq("Old snapshot keeps B1", 12_502_500.0, v1.evaluateCell("B1"));
+            assertEq("New snapshot sees edit", 12_503_500.0, v2.evaluateCell("B1"));
+            if ("nota".equals(v1.getRaw("B2")) && v2.getRaw("B2").isEmpty()) pass("Snapshot raw text ✔");
+            else fail("Snapshot raw text ✗");
+            if (v2.version() > v1.version() && versioned.snapshot().version() == v2.version()) pass("Snapshot versions ✔");
+            else fail("Snapshot versions ✗");
+
+            double parallelSum = v1.allNonEmptyCells().parallelStream()
+                    .filter(ref -> ref.startsWith("A"))
+                    .mapToDouble(v1::evaluateCell)
+                    .sum();
+            assertEq("Parallel read of snapshot", 12_502_500.0, parallelSum);
+
+            String exportFile = "snapshot_export.s2v";
+            Thread exporter = new Thread(() -> {
+                try {
+                    SpreadsheetIO.save(v1, exportFile);
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            exporter.start();
+            for (int r = 1; r <= 200; r++) versioned.setCell("C" + r, "=A" + r + "*2");
+            exporter.join();
+            Spreadsheet exported = SpreadsheetIO.load(exportFile);
+            assertEq("Export of old snapshot", 12_502_500.0, exported.evaluateCell("B1"));
+            if (exported.getRaw("C1").isEmpty()) pass("Export ignores later edits ✔");
+            else fail("Export picked up later edits");
+            new File(exportFile).delete();
+
+            PersistentLongMap<Integer> pm = PersistentLongMap.empty();
+            Map<Long, Integer> model = new HashMap<>();
+            Random rnd = new Random(17);
+            PersistentLongMap<Integer> half = null;
+            Map<Long, Integer> halfModel = null;
+            for (int i = 0; i < 20_000; i++) {
+                long pk = CellPos.pack(rnd.nextInt(50), rnd.nextInt(200));
+                if (rnd.nextInt(3) == 0) {
+                    pm = pm.remove(pk);
+                    model.remove(pk);
+                } else {
+                    pm = pm.put(pk, i);
+                    model.put(pk, i);
+                }
+                if (i == 10_000) {
+                    half = pm;
+                    halfModel = new HashMap<>(model);
+                }
+            }
+            boolean same = pm.size() == model.size() && half.size() == halfModel.size();
+            for (Map.Entry<Long, Integer> e : model.entrySet()) same &= e.getValue().equals(pm.get(e.getKey()));
+            for (Map.Entry<Long, Integer> e : halfModel.entrySet()) same &= e.getValue().equals(half.get(e.getKey()));
+            if (same) pass("Persistent map matches HashMap, old versions intact ✔");
+            else fail("Persistent map diverged from HashMap");
+
+            // ==========================================================
+            // 27) METRICS AND JFR EVENTS
+            // ==========================================================
+            header("27) METRICS AND JFR EVENTS");
+
+            String jfrFile = "recalc_test.jfr";
+            Recording recording = new Recording();
+            recording.enable("spreadsheet.Recalc");
+            recording.enable("spreadsheet.IO");
+            recording.enable("spreadsheet.CellEvaluation").withThreshold(Duration.ZERO);
+            recording.start();
+
+            RecalcMetrics metrics = RecalcMetrics.enable();
+            Spreadsheet profiled = new Spreadsheet();
+            edits.clear();
+            for (int r = 1; r <= 20_000; r++) edits.put("A" + r, Integer.toString(r));
+            edits.put("B1", "=SUMA(A1:A20000)");
+            edits.put("B2", "=A1+1");
+            profiled.setCells(edits);
+            for (int i = 0; i < 20; i++) profiled.setCell("A1", Integer.toString(i));
+            try {
+                profiled.setCell("A1", "=B2");
+            } catch (CircularDependencyException e) {
+                // counted as a cycle check
+            }
+            String metricsFile = "metrics.s2v";
+            SpreadsheetIO.save(profiled, metricsFile);
+            Spreadsheet reloaded = SpreadsheetIO.load(metricsFile);
+            new File(metricsFile).delete();
+            RecalcMetrics.disable();
+
+            recording.stop();
+            recording.dump(Paths.get(jfrFile));
+            recording.close();
+
+            if (metrics.evaluations() >= 42) pass("Evaluations counted (" + metrics.evaluations() + ") ✔");
+            else fail("Evaluations ✗ " + metrics.evaluations());
+            if (metrics.compilations() == 5 && metrics.cycleChecks() == 3) pass("Compilations and cycle checks counted ✔");
+            else fail("Compile/cycle counters ✗ " + metrics);
+            if (metrics.rangeCellsScanned() >= 20_000) pass("Range cells counted ✔");
+            else fail("Range cells ✗ " + metrics.rangeCellsScanned());
+            if (metrics.cellsPerRecalc().count() >= 22 && metrics.cellsPerRecalc().max() >= 20_002) pass("Recalc histogram ✔");
+            else fail("Recalc histogram ✗ " + metrics);
+            if (metrics.loads() == 1 && metrics.saves() == 1 && metrics.cellsLoaded() == 20_002) pass("I/O counted ✔");
+            else fail("I/O counters ✗ " + metrics);
+            List<RecalcMetrics.FormulaCost> top = metrics.topFormulas(profiled, 1);
+            if (!top.isEmpty() && top.get(0).cell().equals("B1")) pass("Most expensive formula is B1 ✔");
+            else fail("Top formula ✗ " + top);
+            List<RecalcMetrics.FormulaCost> reloadedTop = metrics.topFormulas(reloaded, 5);
+            if (top.get(0).evaluations() >= 21 && reloadedTop.size() == 2
+                    && reloadedTop.get(0).evaluations() == 1) pass("Formula costs kept per sheet ✔");
+            else fail("Formula costs per sheet ✗ " + top + " / " + reloadedTop);
+            profiled.setCell("B1", "");
+            if (metrics.topFormulas(profiled, 5).size() == 1) pass("Cleared cell drops its cost ✔");
+            else fail("Cleared cell cost ✗ " + metrics.topFormulas(profiled, 5));
+            if (metrics.evaluationNanos().percentile(50) <= metrics.evaluationNanos().max()) pass("Percentiles ✔");
+            else fail("Percentiles ✗");
+
+            long evalEvents = 0, recalcEvents = 0, ioEvents = 0;
+            for (RecordedEvent e : RecordingFile.readAllEvents(Paths.get(jfrFile))) {
+                String name = e.getEventType().getName();
+                if (name.equals("spreadsheet.CellEvaluation")) evalEvents++;
+                else if (name.equals("spreadsheet.Recalc")) recalcEvents++;
+                else if (name.equals("spreadsheet.IO")) ioEvents++;
+            }
+            if (evalEvents > 0 && recalcEvents >= 22 && ioEvents == 2) pass("JFR events recorded ✔");
+            else fail("JFR events ✗ eval=" + evalEvents + " recalc=" + recalcEvents + " io=" + ioEvents);
+            new File(jfrFile).delete();
+
+            // ==========================================================
+            // 28) SERVER MODE
+            // ==========================================================
+            header("28) SERVER MODE");
+
+            ConcurrentSpreadsheet served = new ConcurrentSpreadsheet();
+            Path serverData = Files.createTempDirectory("server_data");
+            try (SheetServer server = new SheetServer(served, 0, serverData)) {
+                server.start();
+                int port = server.port();
+
+                try (Socket client = new Socket(InetAddress.getLoopbackAddress(), port);
+                     BufferedReader in = new BufferedReader(new InputStreamReader(client.getInputStream(), StandardCharsets.UTF_8));
+                     Writer out = new OutputStreamWriter(client.getOutputStream(), StandardCharsets.UTF_8)) {
+
+                    checkReply("PING", "PONG", ask(in, out, "PING"));
+                    checkReply("SET", "OK", ask(in, out, "SET A1 20"));
+                    checkReply("SET formula", "OK", ask(in, out, "SET B1 =A1*2 + 2"));
+                    checkReply("GET", "VALUE 42", ask(in, out, "GET B1"));
+                    checkReply("RAW", "RAW =A1*2 + 2", ask(in, out, "RAW B1"));
+                    checkReply("BATCH", "OK 2", ask(in, out, "BATCH 2\nA2 5\nB2 =SUMA(A1:A2)"));
+                    checkReply("GET after batch", "VALUE 25", ask(in, out, "GET B2"));
+                    String err = ask(in, out, "SET A1 =B1");
+                    if (err.startsWith("ERROR Circular dependency")) pass("Cycle answered with ERROR ✔");
+                    else fail("Cycle reply ✗ " + err);
+                    checkReply("Connection survives error", "VALUE 20", ask(in, out, "GET A1"));
+
+                    String serverFile = "server_save.s2v";
+                    checkReply("SAVE", "OK", ask(in, out, "SAVE " + serverFile));
+                    checkReply("SET before LOAD", "OK", ask(in, out, "SET A1 1"));
+                    checkReply("LOAD", "OK", ask(in, out, "LOAD " + serverFile));
+                    checkReply("GET after LOAD", "VALUE 42", ask(in, out, "GET B1"));
+                    if (Files.exists(serverData.resolve(serverFile))) pass("SAVE lands in the data directory ✔");
+                    else fail("SAVE outside the data directory ✗");
+                    Files.delete(serverData.resolve(serverFile));
+
+                    for (String escape : new String[]{"../escape.s2v", "sub/../../escape.s2v",
+                            serverData.getParent().resolve("escape.s2v").toString(), ""}) {
+                        String reply = ask(in, out, "SAVE " + escape);
+                        if (reply.startsWith("ERROR") && !Files.exists(serverData.getParent().resolve("escape.s2v"))) {
+                            pass("SAVE '" + escape + "' refused ✔");
+                        } else {
+                            fail("SAVE '" + escape + "' ✗ " + reply);
+                        }
+                    }
+                    checkReply("Unknown command", "ERROR Unknown command: FOO", ask(in, out, "FOO"));
+                    if (in.readLine() == null) pass("Unknown command closes the connection ✔");
+                    else fail("Connection left open after an unknown command ✗");
+                }
+
+                try (Socket browser = new Socket(InetAddress.getLoopbackAddress(), port);
+                     BufferedReader in = new BufferedReader(new InputStreamReader(browser.getInputStream(), StandardCharsets.UTF_8));
+                     Writer out = new OutputStreamWriter(browser.getOutputStream(), StandardCharsets.UTF_8)) {
+                    String reply = ask(in, out, "GET /?q=SAVE%20x HTTP/1.1\r\nHost: 127.0.0.1\r\n");
+                    if (reply == null) pass("HTTP request closed without a reply ✔");
+                    else fail("HTTP request answered ✗ " + reply);
+                }
+
+                int clients = 500;
+                AtomicInteger servedOk = new AtomicInteger();
+                try (ExecutorService clientThreads = Executors.newVirtualThreadPerTaskExecutor()) {
+                    for (int c = 1; c <= clients; c++) {
+                        final int id = c;
+                        clientThreads.execute(() -> {
+                            try (Socket sock = new Socket(InetAddress.getLoopbackAddress(), port);
+                                 BufferedReader in = new BufferedReader(new InputStreamReader(sock.getInputStream(), StandardCharsets.UTF_8));
+                                 Writer out = new OutputStreamWriter(sock.getOutputStream(), StandardCharsets.UTF_8)) {
+                                ask(in, out, "SET Z" + id + " " + id);
+                                if (ask(in, out, "GET Z" + id).equals("VALUE " + id)) servedOk.incrementAndGet();
+                                ask(in, out, "QUIT");
+                            } catch (IOException e) {
+                                // counted as a failure below
+                            }
+                        });
+                    }
+                }
+                if (servedOk.get() == clients) pass(clients + " concurrent clients served ✔");
+                else fail("Concurrent clients ✗ " + servedOk.get() + "/" + clients);
+                served.setCell("Y1", "=SUMA(Z1:Z" + clients + ")");
+                assertEq("Server-side sum of client writes", clients * (clients + 1) / 2.0, served.evaluateCell("Y1"));
+            }
+            Files.delete(serverData);
+
+            try (SheetServer noFiles = new SheetServer(new ConcurrentSpreadsheet(), 0)) {
+                noFiles.start();
+                try (Socket client = new Socket(InetAddress.getLoopbackAddress(), noFiles.port());
+                     BufferedReader in = new BufferedReader(new InputStreamReader(client.getInputStream(), StandardCharsets.UTF_8));
+                     Writer out = new OutputStreamWriter(client.getOutputStream(), StandardCharsets.UTF_8)) {
+                    String reply = ask(in, out, "LOAD x.s2v");
+                    if (reply.startsWith("ERROR File access is disabled")) pass("No data directory: LOAD refused ✔");
+                    else fail("LOAD without data directory ✗ " + reply);
+                }
+            }
+
+            // ==========================================================
+            // 29) BATCH CLI
+            // ==========================================================
+            header("29) BATCH CLI");
+
+            Path batchDir = Files.createTempDirectory("batch_test");
+            for (int n = 1; n <= 40; n++) {
+                Spreadsheet small = new Spreadsheet();
+                small.setCell("A1", Integer.toString(n));
+                small.setCell("B1", "=A1*10");
+                small.setCell("C1", "total");
+                SpreadsheetIO.save(small, batchDir.resolve("sheet" + n + ".s2v").toString());
+            }
+            Files.write(batchDir.resolve("broken.s2v"), Arrays.asList("=B1;=A1"));
+            Files.write(batchDir.resolve("notes.txt"), Arrays.asList("not a sheet"));
+
+            ByteArrayOutputStream batchLog = new ByteArrayOutputStream();
+            List<Path> batchFiles = BatchRecalc.resolve(batchDir.toString());
+            BatchRecalc.Summary summary = BatchRecalc.run(batchFiles, BatchRecalc.Mode.VALUES, null, 4,
+                    new PrintStream(batchLog, true, "UTF-8"));
+            if (batchFiles.size() == 41 && summary.succeeded() == 40 && summary.failed() == 1) pass("Batch run: 40 ok, 1 failed ✔");
+            else fail("Batch run ✗ files=" + batchFiles.size() + " ok=" + summary.succeeded());
+            String logText = batchLog.toString("UTF-8");
+            if (logText.contains("FAIL") && logText.contains("Circular dependency") && logText.contains("41 files")) {
+                pass("Per-file failure reported, run not aborted ✔");
+            } else {
+                fail("Batch log ✗ " + logText);
+            }
+
+            Spreadsheet values = SpreadsheetIO.load(batchDir.resolve("sheet7.values.s2v").toString());
+            if ("70".equals(values.getRaw("B1")) && "total".equals(values.getRaw("C1"))) pass("Values file written ✔");
+            else fail("Values file ✗ " + values.getRaw("B1"));
+
+            if (BatchRecalc.resolve(batchDir.toString()).size() == 41 && BatchRecalc.resolve(batchDir + "/*.s2v").size() == 41) {
+                pass("Second run skips the .values.s2v outputs ✔");
+            } else {
+                fail("Outputs picked up as inputs ✗ " + BatchRecalc.resolve(batchDir + "/*.s2v"));
+            }
+
+            Path deepFile = batchDir.resolve("deep.s2v");
+            StringBuilder nested = new StringBuilder("=");
+            for (int n = 0; n < 8000; n++) nested.append("SUMA(");
+            nested.append('1');
+            for (int n = 0; n < 8000; n++) nested.append(')');
+            Files.write(deepFile, Arrays.asList(nested.toString()));
+            summary = BatchRecalc.run(Arrays.asList(deepFile, batchDir.resolve("sheet3.s2v")), BatchRecalc.Mode.VALUES,
+                    batchDir.resolve("deep_out"), 2, new PrintStream(new ByteArrayOutputStream(), true, "UTF-8"));
+            if (summary.succeeded() == 1 && summary.failed() == 1) pass("Stack overflow on one file is that file's failure ✔");
+            else fail("Deep file ✗ ok=" + summary.succeeded() + " failed=" + summary.failed());
+            Files.delete(deepFile);
+
+            List<Path> globbed = BatchRecalc.resolve(batchDir + "/sheet1?.s2v");
+            if (globbed.size() == 10) pass("Glob selects sheet10..sheet19 ✔");
+            else fail("Glob ✗ " + globbed.size());
+
+            Path resaveDir = batchDir.resolve("out");
+            summary = BatchRecalc.run(BatchRecalc.resolve(batchDir + "/sheet2.s2v"), BatchRecalc.Mode.RESAVE,
+                    resaveDir, 2, new PrintStream(new ByteArrayOutputStream(), true, "UTF-8"));
+            if (summary.failed() == 0 && SpreadsheetIO.load(resaveDir.resolve("sheet2.s2v").toString()).getRaw("B1").equals("=A1*10")) {
+                pass("Re-save to output dir ✔");
+            } else {
+                fail("Re-save ✗");
+            }
+
+            try (Stream<Path> walk = Files.walk(batchDir)) {
+                walk.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+            }
+
+            // =====================================================
+            header("30) CHANGE SUBSCRIPTIONS");
+            // =====================================================
+
+            Spreadsheet subs = new Spreadsheet();
+            subs.setCell("A1", "1");
+            subs.setCell("B1", "=A1*2");
+            subs.setCell("C1", "=A1-A1+5");
+            List<List<CellChange>> seen = new ArrayList<>();
+            Subscription sub = subs.subscribe("B1:C1", seen::add);
+
+            subs.setCell("A1", "2");
+            if (seen.size() == 1 && seen.get(0).size() == 1
+                    && seen.get(0).get(0).getRef().equals("B1")
+                    && seen.get(0).get(0).getOldValue() == 2.0 && seen.get(0).get(0).getNewValue() == 4.0) {
+                pass("Changed cell pushed with old and new value ✔");
+            } else {
+                fail("Subscription deltas ✗ " + seen);
+            }
+
+            seen.clear();
+            subs.setCell("A1", "7");
+            if (seen.size() == 1 && seen.get(0).size() == 1 && seen.get(0).get(0).getRef().equals("B1")) {
+                pass("Unchanged value (C1 stays 5) is not pushed ✔");
+            } else {
+                fail("Unchanged value pushed ✗ " + seen);
+            }
+
+            seen.clear();
+            subs.setCell("D1", "3");
+            if (seen.isEmpty()) pass("Edit outside the range is silent ✔");
+            else fail("Edit outside the range pushed ✗ " + seen);
+
+            seen.clear();
+            Map<String, String> subEdits = new LinkedHashMap<>();
+            subEdits.put("A1", "1");
+            subEdits.put("C1", "=A1+100");
+            subs.setCells(subEdits);
+            if (seen.size() == 1 && seen.get(0).size() == 2 && seen.get(0).get(1).getNewValue() == 101.0) {
+                pass("Batch update delivers a single callback ✔");
+            } else {
+                fail("Batch delivery ✗ " + seen);
+            }
+
+            seen.clear();
+            subEdits.clear();
+            subEdits.put("A1", "50");
+            subEdits.put("D1", "=B1");
+            subEdits.put("B1", "=D1");
+            try {
+                subs.setCells(subEdits);
+                fail("Cyclic batch accepted ✗");
+            } catch (CircularDependencyException e) {
+                if (seen.isEmpty()) pass("Rolled-back batch pushes nothing ✔");
+                else fail("Rolled-back batch pushed ✗ " + seen);
+            }
+
+            seen.clear();
+            sub.cancel();
+            subs.setCell("A1", "9");
+            if (seen.isEmpty()) pass("Cancelled subscription is silent ✔");
+            else fail("Cancelled subscription pushed ✗ " + seen);
+
+            // =====================================================
+            header("31) LAZY LOAD AND VIEWPORT");
+            // =====================================================
+
+            Path lazyFile = Files.createTempFile("lazy_test", ".s2v");
+            List<String> lazyLines = new ArrayList<>();
+            lazyLines.add("1;=A1*10;=C2");
+            lazyLines.add("=A1+1;;=C1");
+            for (int row = 3; row <= 20000; row++) lazyLines.add("=A" + (row - 1) + "+1");
+            Files.write(lazyFile, lazyLines);
+
+            RecalcMetrics lazyMetrics = RecalcMetrics.enable();
+            Spreadsheet lazySheet = SpreadsheetIO.loadLazy(lazyFile.toString());
+            long afterLoad = lazyMetrics.evaluations();
+            double[][] view = lazySheet.viewport("A1:B2");
+            long afterView = lazyMetrics.evaluations();
+            RecalcMetrics.disable();
+
+            assertEq("Nothing evaluated at load", 0, afterLoad);
+            assertEq("Viewport evaluates only its formulas", 2, afterView);
+            if (view.length == 2 && view[0].length == 2 && view[0][1] == 10.0 && view[1][0] == 2.0 && view[1][1] == 0.0) {
+                pass("Viewport values [row][col] ✔");
+            } else {
+                fail("Viewport values ✗ " + Arrays.deepToString(view));
+            }
+            assertEq("20000-deep chain read lazily", 20000, lazySheet.evaluateCell("A20000"));
+
+            if (Double.isNaN(lazySheet.viewport("C1")[0][0])) pass("Cycle is NaN in a viewport ✔");
+            else fail("Cycle in viewport ✗");
+            try {
+                lazySheet.evaluateCell("C1");
+                fail("Lazy cycle not reported ✗");
+            } catch (CircularDependencyException e) {
+                pass("Lazy cycle reported on read ✔");
+            }
+
+            lazySheet.setCell("A1", "5");
+            assertEq("Edit recomputes a lazy chain", 20004, lazySheet.evaluateCell("A20000"));
+            Files.deleteIfExists(lazyFile);
+
+            // =====================================================
+            header("32) SHARED FUNCTION CALLS");
+            // =====================================================
+
+            if (FormulaEvaluator.compile("SUMA(A10:A1)+1").calls[0].key
+                    .equals(FormulaEvaluator.compile("SUMA( A1:A10 )*2").calls[0].key)) {
+                pass("Equal calls share one canonical key ✔");
+            } else {
+                fail("Canonical keys differ ✗");
+            }
+
+            Spreadsheet dup = new Spreadsheet();
+            Map<String, String> sharedEdits = new LinkedHashMap<>();
+            for (int row = 1; row <= 10; row++) sharedEdits.put("A" + row, String.valueOf(row));
+            for (int row = 1; row <= 100; row++) sharedEdits.put("B" + row, "=SUMA(A1:A10)+" + row);
+            sharedEdits.put("C1", "=SUMA(A1:A10;PROMEDIO(A1:A4);3)");
+            sharedEdits.put("C2", "=SUMA(A1:A10;PROMEDIO(A4:A1);3)*2");
+            dup.setCells(sharedEdits);
+
+            RecalcMetrics sharedMetrics = RecalcMetrics.enable();
+            dup.recomputeAll();
+            long scannedAll = sharedMetrics.rangeCellsScanned();
+            long hitsAll = sharedMetrics.sharedCallHits();
+            RecalcMetrics.disable();
+
+            assertEq("Shared SUMA scanned once per recalc (+ nested call)", 10 + 10 + 4, scannedAll);
+            assertEq("Other uses answered from the shared result", 99 + 1, hitsAll);
+            assertEq("Shared result value", 100, dup.evaluateCell("B45"));
+            assertEq("Nested shared call value", 60.5, dup.evaluateCell("C1"));
+            assertEq("Nested shared call reused", 121, dup.evaluateCell("C2"));
+
+            dup.setCell("A5", "105");
+            assertEq("Edit in the range invalidates the shared result", 200, dup.evaluateCell("B45"));
+            assertEq("Shared nested result after edit", 321, dup.evaluateCell("C2"));
+
+            dup.setCell("A11", "1000");
+            assertEq("Edit outside the range leaves it alone", 200, dup.evaluateCell("B45"));
+            for (int row = 2; row <= 100; row++) dup.setCell("B" + row, "");
+            dup.setCell("A1", "0");
+            assertEq("Last remaining user still correct", 154 + 1, dup.evaluateCell("B1"));
+
+            // =====================================================
+            header("33) VECTORIZED RANGE FOLDS");
+            // =====================================================
+
+            if (!new Spreadsheet().setVectorRangesEnabled(true)) pass("Hash store keeps the scalar scan ✔");
+            else fail("Vector path on a hash store ✗");
+
+            Spreadsheet simd = new Spreadsheet(new TiledCellStore());
+            Map<String, String> simdEdits = new LinkedHashMap<>();
+            for (int row = 1; row <= 100000; row++) {
+                if (row % 7 == 0) continue;                        // runs of empty cells
+                if (row % 11 == 0) simdEdits.put("A" + row, "note");
+                else if (row % 13 == 0) simdEdits.put("A" + row, "=A1*2");
+                else simdEdits.put("A" + row, String.valueOf((row * 37 % 1000 - 500) + 0.25));
+            }
+            for (int row = 1; row <= 500; row += 3) simdEdits.put("C" + row, String.valueOf(-row));
+            String[] simdFormulas = {
+                    "=SUMA(A1:A100000)", "=MIN(A3:A99997)", "=MAX(A1:A100000)",
+                    "=PROMEDIO(A1:C500)", "=COUNT(A250:A70001)", "=PRODUCT(A1:A20)"
+            };
+            for (int i = 0; i < simdFormulas.length; i++) simdEdits.put("E" + (i + 1), simdFormulas[i]);
+            simd.setCells(simdEdits);
+
+            double[] scalar = new double[simdFormulas.length];
+            for (int i = 0; i < scalar.length; i++) scalar[i] = simd.evaluateCell("E" + (i + 1));
+
+            if (simd.setVectorRangesEnabled(true)) pass("Vector path enabled on a tiled store ✔");
+            else fail("Vector path not enabled ✗");
+            simd.recomputeAll();
+            for (int i = 0; i < scalar.length; i++) {
+                assertClose("SIMD " + simdFormulas[i], scalar[i], simd.evaluateCell("E" + (i + 1)), 1e-6);
+            }
+
+            simd.setCell("A50000", "-100000");
+            simd.setCell("A13", "=A1*1000");
+            assertEq("SIMD MIN sees the edited formula", -462750, simd.evaluateCell("E2"));
+            double[] vectorized = new double[simdFormulas.length];
+            for (int i = 0; i < vectorized.length; i++) vectorized[i] = simd.evaluateCell("E" + (i + 1));
+            simd.setVectorRangesEnabled(false);
+            simd.recomputeAll();
+            for (int i = 0; i < vectorized.length; i++) {
+                assertClose("Scalar agrees after edits: " + simdFormulas[i], simd.evaluateCell("E" + (i + 1)), vectorized[i], 1e-6);
+            }
+
             // Summary
             System.out.println("\n==============================");
             System.out.println("PASSED: " + ok);
@@ -111,6 +1225,18 @@ public class TestSpreadsheet {
         }
 
         // ---------------- helpers ----------------
+        private static String ask(BufferedReader in, Writer out, String request) throws IOException {
+            out.write(request);
+            out.write('\n');
+            out.flush();
+            return in.readLine();
+        }
+
+        private static void checkReply(String name, String expected, String actual) {
+            if (expected.equals(actual)) pass(name + " ✓ (" + actual + ")");
+            else fail(name + " ✗ expected " + expected + " but got " + actual);
+        }
+
         private static void header(String t) {
             System.out.println("\n===== " + t + " =====");
         }
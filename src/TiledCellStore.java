@@ -0,0 +1,185 @@
+/**
+ * Columnar backend for large, mostly numeric sheets. The grid is cut into fixed
+ * tiles of {@value #TILE_ROWS} rows x {@value #TILE_COLS} columns; each tile holds
+ * a double[] of values and a byte[] of type tags, column-major, so a range scan
+ * down a column walks contiguous memory.
+ *
+ * Only text and formula cells are kept as {@link Cell} objects. A number keeps its
+ * raw text only when it does not print back the same (e.g. "2.50" or "1e3").
+ */
+public class TiledCellStore implements CellStore {
+
+    static final int TILE_ROWS = 256;
+    static final int TILE_COLS = 64;
+    private static final int ROW_BITS = 8;
+    private static final int COL_BITS = 6;
+
+    private static final CellType[] TYPES = CellType.values();
+
+    static final class Tile {
+        final double[] values = new double[TILE_ROWS * TILE_COLS];
+        final byte[] types = new byte[TILE_ROWS * TILE_COLS]; // CellType ordinal, 0 = EMPTY
+        int count;
+    }
+
+    /** A stretch of one tile column: slots [from, to) of the tile arrays, the first being firstRow. */
+    interface RunVisitor {
+        void accept(int firstRow, double[] values, byte[] types, int from, int to);
+    }
+
+    private final LongMap<Tile> tiles = new LongMap<>();
+    private final LongMap<Cell> objects = new LongMap<>();     // TEXT and FORMULA cells
+    private final LongMap<String> numberText = new LongMap<>(); // raw of numbers that don't round-trip
+    private int size;
+
+    private static long tileKey(int col, int row) {
+        return CellPos.pack(col >>> COL_BITS, row >>> ROW_BITS);
+    }
+
+    private static int slot(int col, int row) {
+        return ((col & (TILE_COLS - 1)) << ROW_BITS) | (row & (TILE_ROWS - 1));
+    }
+
+    @Override
+    public Cell cell(long key) {
+        return objects.get(key);
+    }
+
+    @Override
+    public CellType type(long key) {
+        int col = CellPos.col(key), row = CellPos.row(key);
+        Tile t = tiles.get(tileKey(col, row));
+        return (t == null) ? CellType.EMPTY : TYPES[t.types[slot(col, row)]];
+    }
+
+    @Override
+    public double number(long key) {
+        int col = CellPos.col(key), row = CellPos.row(key);
+        Tile t = tiles.get(tileKey(col, row));
+        return (t == null) ? 0.0 : t.values[slot(col, row)]; // 0 for non-number slots
+    }
+
+    @Override
+    public String raw(long key) {
+        Cell c = objects.get(key);
+        if (c != null) return c.getRaw();
+        if (type(key) != CellType.NUMBER) return "";
+
+        String text = numberText.get(key);
+        return (text != null) ? text : Cell.formatNumber(number(key));
+    }
+
+    @Override
+    public void put(long key, Cell cell) {
+        int col = CellPos.col(key), row = CellPos.row(key);
+        long tk = tileKey(col, row);
+        int s = slot(col, row);
+
+        Tile t = tiles.get(tk);
+        boolean wasEmpty = (t == null) || t.types[s] == 0;
+        objects.remove(key);
+        numberText.remove(key);
+
+        CellType type = cell.getType();
+        if (type == CellType.EMPTY) {
+            if (wasEmpty) return;
+            t.types[s] = 0;
+            t.values[s] = 0.0;
+            size--;
+            if (--t.count == 0) tiles.remove(tk);
+            return;
+        }
+
+        if (t == null) tiles.put(tk, t = new Tile());
+        if (wasEmpty) {
+            t.count++;
+            size++;
+        }
+        t.types[s] = (byte) type.ordinal();
+
+        if (type == CellType.NUMBER) {
+            t.values[s] = cell.getCachedNumber();
+            if (!Cell.formatNumber(cell.getCachedNumber()).equals(cell.getRaw())) numberText.put(key, cell.getRaw());
+        } else {
+            t.values[s] = 0.0;
+            objects.put(key, cell);
+        }
+    }
+
+    @Override
+    public void putNumber(long key, double value) {
+        int col = CellPos.col(key), row = CellPos.row(key);
+        long tk = tileKey(col, row);
+        int s = slot(col, row);
+
+        Tile t = tiles.get(tk);
+        if (t == null) tiles.put(tk, t = new Tile());
+        if (t.types[s] == 0) {
+            t.count++;
+            size++;
+        } else {
+            objects.remove(key);
+            numberText.remove(key);
+        }
+        t.types[s] = (byte) CellType.NUMBER.ordinal();
+        t.values[s] = value;
+    }
+
+    @Override
+    public void forEachInColumn(int col, int row1, int row2, ColumnVisitor v) {
+        int base = (col & (TILE_COLS - 1)) << ROW_BITS;
+
+        for (int tr = row1 >>> ROW_BITS; tr <= row2 >>> ROW_BITS; tr++) {
+            Tile t = tiles.get(CellPos.pack(col >>> COL_BITS, tr));
+            if (t == null) continue;
+
+            int first = Math.max(row1, tr << ROW_BITS);
+            int last = Math.min(row2, (tr << ROW_BITS) + TILE_ROWS - 1);
+            byte[] types = t.types;
+            double[] values = t.values;
+
+            for (int row = first; row <= last; row++) {
+                int s = base | (row & (TILE_ROWS - 1));
+                if (types[s] != 0) v.accept(row, TYPES[types[s]], values[s]);
+            }
+        }
+    }
+
+    // Same walk as forEachInColumn, but hands over whole tile stretches (for VectorRangeScan)
+    void forEachColumnRun(int col, int row1, int row2, RunVisitor v) {
+        int base = (col & (TILE_COLS - 1)) << ROW_BITS;
+
+        for (int tr = row1 >>> ROW_BITS; tr <= row2 >>> ROW_BITS; tr++) {
+            Tile t = tiles.get(CellPos.pack(col >>> COL_BITS, tr));
+            if (t == null) continue;
+
+            int first = Math.max(row1, tr << ROW_BITS);
+            int last = Math.min(row2, (tr << ROW_BITS) + TILE_ROWS - 1);
+            v.accept(first, t.values, t.types, base | (first & (TILE_ROWS - 1)), (base | (last & (TILE_ROWS - 1))) + 1);
+        }
+    }
+
+    @Override
+    public void forEachCell(LongMap.Visitor<Cell> v) {
+        objects.forEach(v);
+    }
+
+    @Override
+    public long[] keys() {
+        long[] out = new long[size];
+        int[] n = {0};
+        tiles.forEach((tk, t) -> {
+            int col0 = CellPos.col(tk) << COL_BITS;
+            int row0 = CellPos.row(tk) << ROW_BITS;
+            for (int s = 0; s < t.types.length; s++) {
+                if (t.types[s] != 0) out[n[0]++] = CellPos.pack(col0 + (s >>> ROW_BITS), row0 + (s & (TILE_ROWS - 1)));
+            }
+        });
+        return out;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+}
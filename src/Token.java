@@ -1,11 +1,19 @@
 public class Token {
-    public enum Type { NUMBER, CELL, OPERATOR, LPAREN, RPAREN }
+    public enum Type { NUMBER, CELL, FUNCTION, OPERATOR, LPAREN, RPAREN }
 
     public final Type type;
     public final String text;
+    public final FunctionCall call; // only for FUNCTION tokens
 
     public Token(Type type, String text) {
         this.type = type;
         this.text = text;
+        this.call = null;
+    }
+
+    public Token(FunctionCall call) {
+        this.type = Type.FUNCTION;
+        this.text = call.name;
+        this.call = call;
     }
 }
@@ -0,0 +1,93 @@
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * SIMD fold of a column range held by a {@link TiledCellStore}: sum, count, min and max
+ * of its NUMBER slots, 8 slots per step. Empty and text slots are masked out, which is
+ * what the scalar scan's skip rule does; formula slots are handed back one by one to be
+ * evaluated. Only loaded once {@link Spreadsheet#setVectorRangesEnabled} has checked
+ * that the jdk.incubator.vector module is there.
+ */
+final class VectorRangeScan {
+
+    private static final VectorSpecies<Byte> TAGS = ByteVector.SPECIES_64; // 8 type tags per step
+    private static final int STEP = 8;
+    // the widest shape up to 8 lanes: one step is then 1, 2, 4 or 8 whole double vectors
+    private static final VectorSpecies<Double> DOUBLES =
+            (DoubleVector.SPECIES_PREFERRED.length() <= STEP) ? DoubleVector.SPECIES_PREFERRED : DoubleVector.SPECIES_512;
+    private static final int PARTS = STEP / DOUBLES.length();
+
+    static {
+        if (PARTS == 0 || STEP % DOUBLES.length() != 0) {
+            throw new IllegalStateException("Unsupported vector shape: " + DOUBLES);
+        }
+    }
+
+    private static final byte NUMBER = (byte) CellType.NUMBER.ordinal();
+    private static final byte FORMULA = (byte) CellType.FORMULA.ordinal();
+
+    interface FormulaVisitor {
+        void accept(int row);
+    }
+
+    private VectorRangeScan() {
+    }
+
+    static void fold(TiledCellStore store, int col, int row1, int row2, RangeStats out, FormulaVisitor formulas) {
+        store.forEachColumnRun(col, row1, row2, (firstRow, values, types, from, to) ->
+                foldRun(values, types, from, to, firstRow - from, out, formulas));
+    }
+
+    // Slots [from, to) of one tile column; slot s holds row s + rowOffset
+    private static void foldRun(double[] values, byte[] types, int from, int to, int rowOffset,
+                                RangeStats out, FormulaVisitor formulas) {
+        DoubleVector sum = DoubleVector.zero(DOUBLES);
+        DoubleVector min = DoubleVector.broadcast(DOUBLES, Double.POSITIVE_INFINITY);
+        DoubleVector max = DoubleVector.broadcast(DOUBLES, Double.NEGATIVE_INFINITY);
+        int count = 0;
+
+        int s = from;
+        for (; s + STEP <= to; s += STEP) {
+            ByteVector tags = ByteVector.fromArray(TAGS, types, s);
+            VectorMask<Byte> numbers = tags.eq(NUMBER);
+            if (tags.eq(FORMULA).anyTrue()) visitFormulas(types, s, s + STEP, rowOffset, formulas);
+            if (!numbers.anyTrue()) continue;
+            count += numbers.trueCount();
+
+            for (int p = 0; p < PARTS; p++) {
+                // non-number slots hold 0.0, so the sum needs no mask
+                DoubleVector v = DoubleVector.fromArray(DOUBLES, values, s + p * DOUBLES.length());
+                VectorMask<Double> m = ((DoubleVector) tags.convertShape(VectorOperators.B2D, DOUBLES, p)).eq(NUMBER);
+                sum = sum.add(v);
+                min = min.lanewise(VectorOperators.MIN, v, m);
+                max = max.lanewise(VectorOperators.MAX, v, m);
+            }
+        }
+
+        double tailSum = 0.0, tailMin = Double.POSITIVE_INFINITY, tailMax = Double.NEGATIVE_INFINITY;
+        for (; s < to; s++) {
+            if (types[s] == NUMBER) {
+                tailSum += values[s];
+                tailMin = Math.min(tailMin, values[s]);
+                tailMax = Math.max(tailMax, values[s]);
+                count++;
+            } else if (types[s] == FORMULA) {
+                formulas.accept(s + rowOffset);
+            }
+        }
+
+        out.sum += sum.reduceLanes(VectorOperators.ADD) + tailSum;
+        out.count += count;
+        out.min = Math.min(out.min, Math.min(min.reduceLanes(VectorOperators.MIN), tailMin));
+        out.max = Math.max(out.max, Math.max(max.reduceLanes(VectorOperators.MAX), tailMax));
+    }
+
+    private static void visitFormulas(byte[] types, int from, int to, int rowOffset, FormulaVisitor formulas) {
+        for (int s = from; s < to; s++) {
+            if (types[s] == FORMULA) formulas.accept(s + rowOffset);
+        }
+    }
+}